@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.bench;
+
+import java.io.File;
+
+/**
+ * Helpers for the synthetic corpora benchmarks write with
+ * {@link org.runningreds.horatio.parser.CorpusGenerator}.
+ */
+class Corpora {
+    private Corpora() {}
+    
+    /**
+     * Deletes <code>dir</code> and everything in it.
+     */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+}
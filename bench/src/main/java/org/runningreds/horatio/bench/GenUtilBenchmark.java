@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runningreds.horatio.generator.GenUtil;
+
+/**
+ * Latency of the {@link GenUtil} naming helpers templates call for almost
+ * every name they emit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenUtilBenchmark {
+    
+    @Param({"order_line_item", "OrderLineItem", "http_url_id"})
+    public String name;
+    
+    private final GenUtil util = new GenUtil();
+    
+    @Benchmark
+    public String ucamel() {
+        return util.ucamel(name);
+    }
+    
+    @Benchmark
+    public String lcamel() {
+        return util.lcamel(name);
+    }
+    
+    @Benchmark
+    public String decamel() {
+        return util.decamel(name);
+    }
+    
+    @Benchmark
+    public String cap() {
+        return util.cap(name);
+    }
+    
+    @Benchmark
+    public String uc() {
+        return util.uc(name);
+    }
+
+}
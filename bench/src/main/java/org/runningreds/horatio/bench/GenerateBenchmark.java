@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.bench;
+
+import static org.runningreds.horatio.Horatio.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runningreds.horatio.RunContext;
+import org.runningreds.horatio.generator.VelocityGenerator;
+import org.runningreds.horatio.parser.CorpusGenerator;
+
+/**
+ * End-to-end {@link VelocityGenerator#generate} of one file per struct of a
+ * single-file {@link CorpusGenerator} corpus, using the corpus's struct
+ * template. <code>cold</code> starts from a fresh {@link RunContext} each time, so
+ * includes parsing the model and loading the template; <code>warm</code>
+ * reuses one context, as a long-lived process would, so measures rendering
+ * and output alone. Unchanged files are not rewritten, so after the first
+ * invocation both measure rendering and comparison rather than disk writes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenerateBenchmark {
+    
+    @Param({"100", "1000"})
+    public int structs;
+    
+    @Param({"1", "4"})
+    public int renderParallelism;
+    
+    private File dir;
+    private HashMap<String, Object> genspec;
+    private RunContext warmContext;
+    
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("horatio-generate").toFile();
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setStructs(structs);
+        generator.setIncludeFanout(0);
+        File root = generator.generate(dir);
+        File templateDir = new File(dir, "tpl");
+        File outputDir = new File(dir, "out");
+        outputDir.mkdirs();
+        
+        HashMap<String, Object> options = new HashMap<String, Object>();
+        options.put(OPT_MODEL_FILE, root.getAbsolutePath());
+        options.put(OPT_BASE_INPUT_DIR, templateDir.getAbsolutePath());
+        options.put(OPT_BASE_OUTPUT_DIR, outputDir.getAbsolutePath());
+        options.put(OPT_RENDER_PARALLELISM, String.valueOf(renderParallelism));
+        HashMap<String, Object> params = new HashMap<String, Object>();
+        params.put("pkg", "org.example.bench");
+        HashMap<String, Object> helpers = new HashMap<String, Object>();
+        helpers.put("util", "org.runningreds.horatio.generator.GenUtil");
+        genspec = new HashMap<String, Object>();
+        genspec.put(SECTION_OPTIONS, options);
+        genspec.put(SECTION_PARAMS, params);
+        genspec.put(SECTION_HELPERS, helpers);
+        genspec.put(OPT_TEMPLATE, "struct.vm");
+        genspec.put(OPT_ITERATE, "struct");
+        genspec.put(OPT_FILENAME_EXTENSION, "java");
+        
+        warmContext = new RunContext();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Corpora.delete(dir);
+    }
+    
+    @Benchmark
+    public RunContext cold() {
+        RunContext context = new RunContext();
+        new VelocityGenerator().generate(context, genspec, "bench", 0);
+        return context;
+    }
+    
+    @Benchmark
+    public RunContext warm() {
+        new VelocityGenerator().generate(warmContext, genspec, "bench", 0);
+        return warmContext;
+    }
+
+}
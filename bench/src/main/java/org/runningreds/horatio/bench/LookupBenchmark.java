@@ -0,0 +1,128 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runningreds.horatio.model.ThriftModel;
+import org.runningreds.horatio.model.Type;
+import org.runningreds.horatio.parser.CorpusGenerator;
+import org.runningreds.horatio.parser.Parsers;
+
+/**
+ * Latency of {@link ThriftModel#lookup} and {@link ThriftModel#lookupType}
+ * for local, included and missing names, on one thread and on several (as
+ * when templates render in parallel). Looks up names from a part of a
+ * {@link CorpusGenerator} corpus, which includes the corpus's common model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+    
+    @Param({"1000"})
+    public int structs;
+    
+    private File dir;
+    private ThriftModel model;
+    private String localName;
+    private String includedName;
+    
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("horatio-lookup").toFile();
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setStructs(structs);
+        generator.setIncludeFanout(1);
+        generator.generate(dir);
+        model = Parsers.parseThrift(new File(dir, "idl/part0.thrift"));
+        localName = "P0Struct" + (structs / 4);
+        includedName = CorpusGenerator.COMMON_MODEL + ".CommonStruct" + (structs / 40);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Corpora.delete(dir);
+    }
+    
+    @Benchmark
+    public Object lookupLocal() {
+        return model.lookup(localName);
+    }
+    
+    @Benchmark
+    public Object lookupIncluded() {
+        return model.lookup(includedName);
+    }
+    
+    @Benchmark
+    public Object lookupEnumElem() {
+        return model.lookup("P0Enum0.ORDER_0");
+    }
+    
+    @Benchmark
+    public Object lookupMissing() {
+        return model.lookup("NoSuchName");
+    }
+    
+    @Benchmark
+    public Type lookupTypeLocal() {
+        return model.lookupType(localName);
+    }
+    
+    @Benchmark
+    public Type lookupTypeIncluded() {
+        return model.lookupType(includedName);
+    }
+    
+    @Benchmark
+    public Type lookupTypeContainer() {
+        return model.lookupType("list<i64>");
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Object lookupLocalContended() {
+        return model.lookup(localName);
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Type lookupTypeContended() {
+        return model.lookupType(localName);
+    }
+
+}
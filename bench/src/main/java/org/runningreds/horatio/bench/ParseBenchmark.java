@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.runningreds.horatio.model.ThriftModel;
+import org.runningreds.horatio.parser.CorpusGenerator;
+import org.runningreds.horatio.parser.Parsers;
+
+/**
+ * Parse throughput of {@link Parsers#parseThrift(File)}, including includes,
+ * on a {@link CorpusGenerator} corpus.
+ * Besides parses per second, reports <code>bytes</code> and
+ * <code>definitions</code> parsed per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    
+    @Param({"100", "1000", "10000"})
+    public int structs;
+    
+    @Param({"10"})
+    public int fields;
+    
+    @Param({"0", "4", "40"})
+    public int includeFanout;
+    
+    private File dir;
+    private File root;
+    private long bytes;
+    private int definitions;
+    
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+        public long definitions;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            definitions = 0;
+        }
+    }
+    
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("horatio-parse").toFile();
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setStructs(structs);
+        generator.setUnions(structs / 10);
+        generator.setEnums(structs / 10);
+        generator.setFieldsPerStruct(fields);
+        generator.setIncludeFanout(includeFanout);
+        root = generator.generate(dir);
+        bytes = generator.getBytes();
+        definitions = generator.getDefinitions();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Corpora.delete(dir);
+    }
+    
+    @Benchmark
+    public ThriftModel parse(Counters counters) {
+        ThriftModel model = Parsers.parseThrift(root);
+        counters.bytes += bytes;
+        counters.definitions += definitions;
+        return model;
+    }
+
+}
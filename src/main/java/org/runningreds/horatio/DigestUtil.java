@@ -0,0 +1,142 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.runningreds.horatio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content fingerprinting used to key the model and output caches.
+ */
+public class DigestUtil {
+    private DigestUtil() {}
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE is required to provide SHA-1
+            throw new HoratioException(e);
+        }
+    }
+
+    public static String digest(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    /**
+     * Returns a digest of the remaining content of <code>content</code>,
+     * leaving its position unchanged.
+     */
+    public static String digest(ByteBuffer content) {
+        MessageDigest md = newDigest();
+        md.update(content.duplicate());
+        return toHex(md.digest());
+    }
+
+    public static String digest(String content) {
+        return digest(content.getBytes(UTF8));
+    }
+
+    /**
+     * Returns a digest of a genspec value (a string, number, boolean, list or
+     * map of these) that does not depend on the iteration order of maps.
+     */
+    public static String digestValue(Object value) {
+        StringBuilder sb = new StringBuilder(256);
+        appendValue(sb, value);
+        return digest(sb.toString());
+    }
+
+    /**
+     * Returns a digest of the class file for <code>className</code>, so
+     * that a change to a helper class can be detected, or of the name alone
+     * if the class file can't be found.
+     */
+    public static String digestClass(String className) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = DigestUtil.class.getClassLoader();
+        }
+        InputStream in = loader.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (in != null) {
+            try {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+                    byte[] buf = new byte[8192];
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        out.write(buf, 0, n);
+                    }
+                    return digest(out.toByteArray());
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+        }
+        return digest("class " + className);
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof String) {
+            String s = (String)value;
+            sb.append('"').append(s.length()).append(':').append(s).append('"');
+        } else if (value instanceof List) {
+            sb.append('[');
+            for (Object elem : (List<?>)value) {
+                appendValue(sb, elem);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof Map) {
+            sb.append('{');
+            for (Map.Entry<?, ?> entry : new TreeMap<Object, Object>((Map<?, ?>)value).entrySet()) {
+                appendValue(sb, entry.getKey());
+                sb.append(':');
+                appendValue(sb, entry.getValue());
+                sb.append(',');
+            }
+            sb.append('}');
+        } else {
+            sb.append(value == null ? "null" : value.getClass().getSimpleName() + ' ' + value);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            chars[j++] = HEX[b >>> 4];
+            chars[j++] = HEX[b & 0x0f];
+        }
+        return new String(chars);
+    }
+
+}
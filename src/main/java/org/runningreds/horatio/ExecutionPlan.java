@@ -0,0 +1,456 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio;
+
+import static org.runningreds.horatio.Horatio.*;
+import static org.runningreds.horatio.GenspecUtil.*;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.runningreds.horatio.generator.Generator;
+import org.runningreds.horatio.generator.IncrementalState;
+import org.runningreds.horatio.generator.OutputCache;
+import org.runningreds.horatio.generator.OutputWriter;
+import org.runningreds.horatio.generator.ValidatingGenerator;
+import org.runningreds.horatio.generator.VelocityGenerator;
+
+/**
+ * A genspec compiled into the generator units to run, with their classes
+ * loaded and options resolved, and the distinct models they read. Errors
+ * in the genspec (a bad generator or helper class, a missing template or
+ * model file, an invalid <code>iterate</code>) are all found when the plan
+ * is compiled, so a run can be refused before anything is parsed. A plan
+ * holds no run state, and may be executed any number of times.
+ * <p>
+ * A target or generator entry may list in <code>depends_on</code> the
+ * targets (<code>"name"</code>) or generators (<code>"name[index]"</code>,
+ * or just the index within the same target) that must finish before it
+ * starts. Targets depended on are run even if not selected themselves.
+ */
+public class ExecutionPlan {
+    
+    private final Scope globalOptions;
+    private final List<GeneratorUnit> units;
+    // by canonical name, in order of first use
+    private final Map<String, FileRef> models;
+    private final List<String> errors;
+    private final int parallelism;
+    private final GenerationScheduler.FailurePolicy failurePolicy;
+    
+    private ExecutionPlan(Scope globalOptions, List<GeneratorUnit> units, Map<String, FileRef> models,
+            List<String> errors, int parallelism, GenerationScheduler.FailurePolicy failurePolicy) {
+        this.globalOptions = globalOptions;
+        this.units = Collections.unmodifiableList(units);
+        this.models = Collections.unmodifiableMap(models);
+        this.errors = Collections.unmodifiableList(errors);
+        this.parallelism = parallelism;
+        this.failurePolicy = failurePolicy;
+    }
+    
+    /**
+     * Compiles the selected targets of <code>genspec</code>, collecting any
+     * errors rather than throwing them.
+     * @param mainOptions command line options, which override global options
+     */
+    @SuppressWarnings("unchecked")
+    public static ExecutionPlan compile(Map<String, Object> genspec, Map<String, Object> mainOptions) {
+        List<String> errors = new ArrayList<String>();
+        Map<String, Object> globalSection = getMap(SECTION_GLOBAL, genspec);
+        // command line options override matching global options (and later, below, target options)
+        Scope globalOptions = Scope.of(getMap(SECTION_OPTIONS, globalSection)).with(mainOptions);
+        Scope globalParams = Scope.of(getMap(SECTION_PARAMS, globalSection));
+        
+        int parallelism = 1;
+        GenerationScheduler.FailurePolicy failurePolicy = GenerationScheduler.FailurePolicy.FAIL_FAST;
+        try {
+            parallelism = getInt(OPT_PARALLELISM, globalOptions, 1);
+            if (parallelism < 1) {
+                errors.add("Invalid parallelism " + parallelism);
+                parallelism = 1;
+            }
+        } catch (GenspecException e) {
+            errors.add(e.getMessage());
+        }
+        try {
+            failurePolicy = GenerationScheduler.FailurePolicy.forName(getString(OPT_FAILURE_POLICY, globalOptions));
+        } catch (GenspecException e) {
+            errors.add(e.getMessage());
+        }
+        
+        List<Object> targetNames = getList(OPT_TARGET, globalOptions);
+        boolean allTargets = targetNames.isEmpty() || targetNames.contains("all");
+        Map<String, Object> targets = getMap(SECTION_TARGETS, genspec);
+        
+        // the selected targets, and those they depend on
+        Set<String> needed = new HashSet<String>();
+        List<String> pending = new ArrayList<String>();
+        for (String targetName : targets.keySet()) {
+            if (allTargets || targetNames.contains(targetName)) {
+                pending.add(targetName);
+            }
+        }
+        while (!pending.isEmpty()) {
+            String targetName = pending.remove(pending.size() - 1);
+            if (!needed.add(targetName)) {
+                continue;
+            }
+            Map<String, Object> target = getMap(targetName, targets);
+            List<Object> refs = new ArrayList<Object>(getList(OPT_DEPENDS_ON, target));
+            for (Map<String, Object> genEntry : (List<Map<String, Object>>)(Object)getList(SECTION_GENERATORS, target)) {
+                refs.addAll(getList(OPT_DEPENDS_ON, genEntry));
+            }
+            for (Object ref : refs) {
+                String depName = targetOf(ref, targetName);
+                if (!targets.containsKey(depName)) {
+                    errors.add("Unknown target " + depName + " in depends_on of target " + targetName);
+                } else if (!needed.contains(depName)) {
+                    pending.add(depName);
+                }
+            }
+        }
+        
+        List<GeneratorUnit> units = new ArrayList<GeneratorUnit>();
+        // by target, each unit at its generator's index; null where the generator class is invalid
+        Map<String, GeneratorUnit[]> unitsByTarget = new HashMap<String, GeneratorUnit[]>();
+        Map<String, FileRef> models = new LinkedHashMap<String, FileRef>();
+        for (Map.Entry<String, Object> targetEntry : targets.entrySet()) {
+            String targetName = targetEntry.getKey();
+            if (needed.contains(targetName)) {
+                Map<String, Object> target = getMap(targetName, targets);
+                
+                // target options and params override any of the same name in the global scope
+                Scope targetOpts = globalOptions.with(getMap(SECTION_OPTIONS, target));
+                Scope targetParams = globalParams.with(getMap(SECTION_PARAMS, target));
+                Scope targetHelpers = Scope.of(getMap(SECTION_HELPERS, target));
+
+                List<Map<String, Object>> generators = (List<Map<String, Object>>)(Object)getList(SECTION_GENERATORS, target);
+                GeneratorUnit[] targetUnits = new GeneratorUnit[generators.size()];
+                unitsByTarget.put(targetName, targetUnits);
+                for (int i = 0, limit = generators.size(); i < limit; i++) {
+                    Map<String, Object> genEntry = generators.get(i);
+                    // generator options, params and helpers override any of the same name in the target
+                    // scope; the generator entry itself is left as parsed
+                    Map<String, Object> scopes = new HashMap<String, Object>(4);
+                    scopes.put(SECTION_OPTIONS, targetOpts.with(getMap(SECTION_OPTIONS, genEntry)));
+                    scopes.put(SECTION_PARAMS, targetParams.with(getMap(SECTION_PARAMS, genEntry)));
+                    scopes.put(SECTION_HELPERS, targetHelpers.with(getMap(SECTION_HELPERS, genEntry)));
+                    Scope gen = Scope.of(genEntry).with(scopes);
+                    
+                    // instantiate generator class
+                    Generator generator;
+                    String genClassName = getString(OPT_GENERATOR_CLASS, gen);
+                    if (genClassName == null || (genClassName = genClassName.trim()).isEmpty()) {
+                        generator = new VelocityGenerator();
+                    } else {
+                        try {
+                            Class<?> genClass = Class.forName(genClassName);
+                            generator = (Generator)genClass.getConstructor(new Class[]{}).newInstance(new Object[]{});
+                        } catch (Exception e) {
+                            errors.add("Invalid generator class " + genClassName + " specified for target[generator] = " +
+                                    getTargetGenId(targetName, i) + ": " + e);
+                            continue;
+                        }
+                    }
+                    if (generator instanceof ValidatingGenerator) {
+                        errors.addAll(((ValidatingGenerator)generator).validate(gen, targetName, i));
+                    }
+                    
+                    FileRef modelRef = getFileRef(null, null, getString(OPT_MODEL_FILE, getMap(SECTION_OPTIONS, gen)));
+                    if (!modelRef.isEmpty()) {
+                        String key = modelRef.getCanonicalName();
+                        if (!models.containsKey(key)) {
+                            models.put(key, modelRef);
+                            if (modelRef.isFile() && !modelRef.getFile().isFile()) {
+                                errors.add("Model file " + modelRef + " not found for target " + getTargetGenId(targetName, i));
+                            }
+                        }
+                    }
+                    
+                    GeneratorUnit unit = new GeneratorUnit(targetName, i, gen, generator);
+                    targetUnits[i] = unit;
+                    units.add(unit);
+                }
+            }
+        }
+        
+        // a target's dependencies apply to each of its generators
+        for (Map.Entry<String, GeneratorUnit[]> entry : unitsByTarget.entrySet()) {
+            String targetName = entry.getKey();
+            Map<String, Object> target = getMap(targetName, targets);
+            List<Map<String, Object>> generators = (List<Map<String, Object>>)(Object)getList(SECTION_GENERATORS, target);
+            GeneratorUnit[] targetUnits = entry.getValue();
+            for (Object ref : getList(OPT_DEPENDS_ON, target)) {
+                if (isIndex(ref)) {
+                    errors.add("Invalid depends_on " + ref + " of target " + targetName + " (expected a target name)");
+                    continue;
+                }
+                for (GeneratorUnit unit : targetUnits) {
+                    if (unit != null) {
+                        addDependencies(unit, ref, unitsByTarget, errors);
+                    }
+                }
+            }
+            for (int i = 0; i < targetUnits.length; i++) {
+                if (targetUnits[i] != null) {
+                    for (Object ref : getList(OPT_DEPENDS_ON, generators.get(i))) {
+                        addDependencies(targetUnits[i], ref, unitsByTarget, errors);
+                    }
+                }
+            }
+        }
+        units = sortByDependencies(units, errors);
+        return new ExecutionPlan(globalOptions, units, models, errors, parallelism, failurePolicy);
+    }
+    
+    // the target named by a depends_on entry: "target", "target[index]", or
+    // an index alone for another generator of the same target
+    private static String targetOf(Object ref, String targetName) {
+        if (isIndex(ref)) {
+            return targetName;
+        }
+        String s = ref.toString().trim();
+        int index = s.indexOf('[');
+        return index < 0 ? s : s.substring(0, index).trim();
+    }
+    
+    private static boolean isIndex(Object ref) {
+        return ref instanceof Number || ref.toString().trim().matches("[0-9]+");
+    }
+    
+    private static void addDependencies(GeneratorUnit unit, Object ref, Map<String, GeneratorUnit[]> unitsByTarget,
+            List<String> errors) {
+        String targetName = targetOf(ref, unit.getTargetName());
+        GeneratorUnit[] targetUnits = unitsByTarget.get(targetName);
+        if (targetUnits == null) {
+            // unknown target, already reported
+            return;
+        }
+        String s = ref.toString().trim();
+        int index = -1;
+        try {
+            if (isIndex(ref)) {
+                index = Integer.parseInt(s);
+            } else if (s.indexOf('[') > 0) {
+                if (!s.endsWith("]")) {
+                    throw new NumberFormatException(s);
+                }
+                index = Integer.parseInt(s.substring(s.indexOf('[') + 1, s.length() - 1).trim());
+            }
+        } catch (NumberFormatException e) {
+            errors.add("Invalid depends_on " + ref + " of target[generator] = " + unit.getId());
+            return;
+        }
+        if (index < 0) {
+            for (GeneratorUnit dependency : targetUnits) {
+                if (dependency != null && dependency != unit) {
+                    unit.addDependency(dependency);
+                }
+            }
+        } else if (index >= targetUnits.length) {
+            errors.add("No generator " + getTargetGenId(targetName, index) + " for depends_on of target[generator] = " +
+                    unit.getId());
+        } else if (targetUnits[index] != null) {
+            unit.addDependency(targetUnits[index]);
+        }
+    }
+    
+    // orders units so each follows those it depends on, otherwise keeping
+    // genspec order; reports any cycle
+    private static List<GeneratorUnit> sortByDependencies(List<GeneratorUnit> units, List<String> errors) {
+        int count = units.size();
+        Map<GeneratorUnit, Integer> positions = new IdentityHashMap<GeneratorUnit, Integer>(count);
+        for (int i = 0; i < count; i++) {
+            positions.put(units.get(i), i);
+        }
+        int[] waiting = new int[count];
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            dependents.add(new ArrayList<Integer>(0));
+        }
+        for (int i = 0; i < count; i++) {
+            for (GeneratorUnit dependency : units.get(i).getDependencies()) {
+                dependents.get(positions.get(dependency)).add(i);
+                waiting[i]++;
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int i = 0; i < count; i++) {
+            if (waiting[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<GeneratorUnit> sorted = new ArrayList<GeneratorUnit>(count);
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            sorted.add(units.get(i));
+            for (int dependent : dependents.get(i)) {
+                if (--waiting[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() < count) {
+            StringBuilder sb = new StringBuilder("Dependency cycle among target[generator] =");
+            for (int i = 0; i < count; i++) {
+                if (waiting[i] > 0) {
+                    sb.append(' ').append(units.get(i).getId());
+                    sorted.add(units.get(i));
+                }
+            }
+            errors.add(sb.toString());
+        }
+        return sorted;
+    }
+    
+    public Scope getGlobalOptions() {
+        return globalOptions;
+    }
+    
+    /**
+     * Returns the units to run, each after those it depends on.
+     */
+    public List<GeneratorUnit> getUnits() {
+        return units;
+    }
+    
+    /**
+     * Returns the distinct model files or URLs the units read.
+     */
+    public List<FileRef> getModels() {
+        return new ArrayList<FileRef>(models.values());
+    }
+    
+    public List<String> getErrors() {
+        return errors;
+    }
+    
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+    
+    /**
+     * Prints each error found in compiling this plan.
+     * @throws GenspecException if there were any
+     */
+    public void validate() throws GenspecException {
+        if (errors.isEmpty()) {
+            return;
+        }
+        for (String error : errors) {
+            printError(error);
+        }
+        throw new GenspecException(errors.size() == 1 ? errors.get(0) : errors.size() + " errors in genspec");
+    }
+    
+    /**
+     * Describes the units, models and settings of this plan, and any errors.
+     */
+    public void print(PrintStream out) {
+        out.println("parallelism: " + parallelism + ", failure policy: " + failurePolicy.name().toLowerCase());
+        out.println("models:");
+        for (FileRef model : models.values()) {
+            out.println("  " + model);
+        }
+        out.println("generators:");
+        for (GeneratorUnit unit : units) {
+            Map<String, Object> spec = unit.getSpec();
+            StringBuilder sb = new StringBuilder("  ").append(unit.getId()).append(": ")
+                    .append(unit.getGenerator().getClass().getName());
+            String template = getString(OPT_TEMPLATE, spec);
+            if (template != null) {
+                sb.append(", template ").append(template);
+            }
+            sb.append(", iterate ").append(getString(OPT_ITERATE, spec, "none"));
+            String model = getString(OPT_MODEL_FILE, getMap(SECTION_OPTIONS, spec));
+            if (model != null) {
+                sb.append(", model ").append(model);
+            }
+            List<GeneratorUnit> dependencies = unit.getDependencies();
+            for (int i = 0; i < dependencies.size(); i++) {
+                sb.append(i == 0 ? ", after " : " ").append(dependencies.get(i).getId());
+            }
+            out.println(sb);
+        }
+        if (!errors.isEmpty()) {
+            out.println("errors:");
+            for (String error : errors) {
+                out.println("  " + error);
+            }
+        }
+    }
+    
+    /**
+     * Validates this plan, then runs its units.
+     */
+    public void execute(RunContext context) throws HoratioException {
+        validate();
+        IncrementalState state = null;
+        if (getBoolean(OPT_INCREMENTAL, globalOptions, false)) {
+            state = IncrementalState.load(new File(getString(OPT_STATE_FILE, globalOptions, ".horatio-state")));
+            context.setIncrementalState(state);
+        }
+        String outputCacheDir = getString(OPT_OUTPUT_CACHE_DIR, globalOptions);
+        if (outputCacheDir != null) {
+            context.setOutputCache(new OutputCache(new File(outputCacheDir)));
+        }
+        
+        GenerationScheduler scheduler = new GenerationScheduler(parallelism, failurePolicy);
+        try {
+            scheduler.run(context, units);
+        } finally {
+            // record whatever was generated, even if a generator failed
+            if (state != null) {
+                try {
+                    state.save();
+                } catch (Exception e) {
+                    printWarning("Error saving incremental state file " + state.getFile().getAbsolutePath() + ": " + e);
+                }
+            }
+            String metricsFile = getString(OPT_METRICS_FILE, globalOptions);
+            if (metricsFile != null) {
+                writeMetrics(context, new File(metricsFile));
+            }
+        }
+    }
+    
+    private static void writeMetrics(RunContext context, File file) {
+        OutputWriter writer = context.getOutputWriter();
+        Metrics metrics = context.getMetrics();
+        metrics.count(Metrics.FILES_WRITTEN, writer.getWrittenCount());
+        metrics.count(Metrics.FILES_UNCHANGED, writer.getUnchangedCount());
+        metrics.count(Metrics.FILES_UP_TO_DATE, writer.getUpToDateCount());
+        metrics.count(Metrics.BYTES_WRITTEN, writer.getBytesWritten());
+        try {
+            metrics.writeJson(file);
+        } catch (Exception e) {
+            printWarning("Error writing metrics file " + file.getAbsolutePath() + ": " + e);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package org.runningreds.horatio;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-public class FileRef {
+public class FileRef implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // files this large are mapped rather than read into the heap
+    private static final long MAP_THRESHOLD = 1024 * 1024;
 
     final File file;
     final URL url;
@@ -55,6 +64,109 @@ public class FileRef {
         
     }
 
+    /**
+     * Reads the entire content of the referenced file or URL.
+     */
+    public byte[] readBytes() {
+        InputStream in = getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    file != null ? (int)Math.min(file.length() + 1, Integer.MAX_VALUE) : 8192);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new GenspecException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Reads the entire content of the referenced file or URL into a buffer
+     * positioned at its start. Files of a megabyte or more are mapped into
+     * memory rather than copied; smaller ones take a single bulk read.
+     * (On Windows, a mapped file can't be replaced until its buffer is
+     * garbage collected.)
+     */
+    public ByteBuffer readBuffer() {
+        if (file == null) {
+            return ByteBuffer.wrap(readBytes());
+        }
+        try {
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                long size = channel.size();
+                if (size >= MAP_THRESHOLD) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int)size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // until full, or the file was truncated meanwhile
+                }
+                buffer.flip();
+                return buffer;
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new GenspecException(e);
+        }
+    }
+
+    /**
+     * Returns a name that identifies the same file regardless of how the
+     * path was written: the canonical path of a file, or the URL string.
+     */
+    public String getCanonicalName() {
+        if (file != null) {
+            try {
+                return file.getCanonicalPath();
+            } catch (IOException e) {
+                return file.getAbsolutePath();
+            }
+        } else if (url != null) {
+            return url.toString();
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Returns the last segment of the path, e.g. "foo.thrift".
+     */
+    public String getName() {
+        if (file != null) {
+            return file.getName();
+        } else if (url != null) {
+            return new File(url.getPath()).getName();
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
+    public FileRef getParentRef() {
+        if (file != null) {
+            return new FileRef(file.getAbsoluteFile().getParentFile());
+        } else if (url != null) {
+            String urlString = url.toString();
+            try {
+                return new FileRef(new URL(urlString.substring(0, urlString.lastIndexOf('/'))));
+            } catch (Exception e) {
+                throw new GenspecException(e);
+            }
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
     public FileRef getChildRef(String filename) {
         if (file != null) {
             return new FileRef(new File(file, filename));
@@ -68,5 +180,16 @@ public class FileRef {
             throw new IllegalStateException();
         }
     }
-    
+
+    @Override
+    public String toString() {
+        if (file != null) {
+            return file.getPath();
+        } else if (url != null) {
+            return url.toString();
+        } else {
+            return "";
+        }
+    }
+
 }
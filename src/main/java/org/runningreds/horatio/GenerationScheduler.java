@@ -0,0 +1,310 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio;
+
+import static org.runningreds.horatio.GenspecUtil.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs generator units, either one at a time in plan order, or
+ * concurrently on a work-stealing pool, each starting once the units it
+ * depends on have finished. Under the collect-all policy, units that
+ * depend on a failed unit are skipped.
+ * <p>
+ * In parallel mode each unit's warnings and errors are buffered and written
+ * to the calling thread's log stream in plan order, so the log reads the same as a sequential
+ * run regardless of which unit finishes first.
+ */
+public class GenerationScheduler {
+    
+    public enum FailurePolicy {
+        /** stop scheduling at the first failure, and rethrow it */
+        FAIL_FAST,
+        /** run every unit, then report all failures */
+        COLLECT_ALL;
+        
+        public static FailurePolicy forName(String name) {
+            if (name == null || "fail_fast".equals(name)) {
+                return FAIL_FAST;
+            } else if ("collect_all".equals(name)) {
+                return COLLECT_ALL;
+            }
+            throw new GenspecException("Invalid failure_policy " + name + " (expected fail_fast or collect_all)");
+        }
+    }
+    
+    private final int parallelism;
+    private final FailurePolicy failurePolicy;
+    
+    public GenerationScheduler(int parallelism, FailurePolicy failurePolicy) {
+        if (parallelism < 1) {
+            throw new GenspecException("Invalid parallelism " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.failurePolicy = failurePolicy;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public FailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    public void run(RunContext context, List<GeneratorUnit> units) throws HoratioException {
+        Metrics prev = Metrics.setCurrent(context.getMetrics());
+        try {
+            if (parallelism == 1 || units.size() < 2) {
+                runSequential(context, units);
+            } else {
+                runParallel(context, units);
+            }
+        } finally {
+            Metrics.setCurrent(prev);
+        }
+    }
+    
+    private void runSequential(RunContext context, List<GeneratorUnit> units) {
+        List<Throwable> failures = new ArrayList<Throwable>();
+        // units that failed or were skipped, whose dependents are skipped in turn
+        Set<GeneratorUnit> failed = Collections.newSetFromMap(new IdentityHashMap<GeneratorUnit, Boolean>());
+        for (GeneratorUnit unit : units) {
+            if (failurePolicy == FailurePolicy.FAIL_FAST) {
+                unit.run(context);
+            } else if (failedDependency(unit, failed) != null) {
+                reportSkipped(unit, failedDependency(unit, failed));
+                failed.add(unit);
+            } else {
+                try {
+                    unit.run(context);
+                } catch (RuntimeException e) {
+                    reportFailure(unit, e);
+                    failures.add(e);
+                    failed.add(unit);
+                }
+            }
+        }
+        checkFailures(failures, units.size(), failed.size() - failures.size());
+    }
+    
+    private static GeneratorUnit failedDependency(GeneratorUnit unit, Set<GeneratorUnit> failed) {
+        for (GeneratorUnit dependency : unit.getDependencies()) {
+            if (failed.contains(dependency)) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Starts each unit as soon as those it depends on have finished.
+     * Units are expected in an order in which each follows its
+     * dependencies, as {@link ExecutionPlan#getUnits()} returns them;
+     * dependencies not among <code>units</code> are taken as satisfied.
+     */
+    private void runParallel(final RunContext context, final List<GeneratorUnit> units) {
+        final int count = units.size();
+        PrintStream out = getLogStream();
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, count));
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(pool);
+        final ByteArrayOutputStream[] logs = new ByteArrayOutputStream[count];
+        Map<Future<Integer>, Integer> futures = new IdentityHashMap<Future<Integer>, Integer>(count);
+        
+        Map<GeneratorUnit, Integer> positions = new IdentityHashMap<GeneratorUnit, Integer>(count);
+        for (int i = 0; i < count; i++) {
+            positions.put(units.get(i), i);
+            logs[i] = new ByteArrayOutputStream(256);
+        }
+        // number of unfinished dependencies of each unit, and the units waiting on each
+        int[] waiting = new int[count];
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            dependents.add(new ArrayList<Integer>(0));
+        }
+        for (int i = 0; i < count; i++) {
+            for (GeneratorUnit dependency : units.get(i).getDependencies()) {
+                Integer position = positions.get(dependency);
+                if (position != null) {
+                    dependents.get(position).add(i);
+                    waiting[i]++;
+                }
+            }
+        }
+        
+        List<Throwable> failures = new ArrayList<Throwable>();
+        boolean[] done = new boolean[count];
+        int finished = 0;
+        int skipped = 0;
+        int flushed = 0;
+        int running = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (waiting[i] == 0) {
+                    futures.put(submit(completion, context, units.get(i), logs[i]), i);
+                    running++;
+                }
+            }
+            while (finished < count) {
+                if (running == 0) {
+                    // only a cycle leaves units waiting with nothing running;
+                    // plans reject those, but don't wait forever on one
+                    StringBuilder sb = new StringBuilder("Dependency cycle among target[generator] =");
+                    for (int i = 0; i < count; i++) {
+                        if (!done[i]) {
+                            sb.append(' ').append(units.get(i).getId());
+                        }
+                    }
+                    throw new GenerationException(sb.toString());
+                }
+                Future<Integer> future = completion.take();
+                running--;
+                int index = futures.get(future);
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                    if (failurePolicy == FailurePolicy.FAIL_FAST) {
+                        done[index] = true;
+                        for (Future<Integer> f : futures.keySet()) {
+                            f.cancel(true);
+                        }
+                        break;
+                    }
+                    // whatever depends on a failed unit can't run
+                    // (as pairs of dependent and the dependency it was skipped for)
+                    List<Integer> skip = new ArrayList<Integer>();
+                    for (int dependent : dependents.get(index)) {
+                        skip.add(dependent);
+                        skip.add(index);
+                    }
+                    while (!skip.isEmpty()) {
+                        int cause = skip.remove(skip.size() - 1);
+                        int dependent = skip.remove(skip.size() - 1);
+                        if (!done[dependent] && waiting[dependent] >= 0) {
+                            waiting[dependent] = -1;
+                            PrintStream prev = setLogStream(new PrintStream(logs[dependent], true));
+                            reportSkipped(units.get(dependent), units.get(cause));
+                            setLogStream(prev);
+                            done[dependent] = true;
+                            finished++;
+                            skipped++;
+                            for (int next : dependents.get(dependent)) {
+                                skip.add(next);
+                                skip.add(dependent);
+                            }
+                        }
+                    }
+                    dependents.get(index).clear();
+                }
+                done[index] = true;
+                finished++;
+                for (int dependent : dependents.get(index)) {
+                    if (--waiting[dependent] == 0) {
+                        futures.put(submit(completion, context, units.get(dependent), logs[dependent]), dependent);
+                        running++;
+                    }
+                }
+                // write out logs of all units completed so far, in plan order
+                while (flushed < count && done[flushed]) {
+                    flushLog(logs[flushed++], out);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenerationException("Interrupted waiting for generators", e);
+        } finally {
+            pool.shutdownNow();
+            for (int i = flushed; i < count; i++) {
+                if (done[i]) {
+                    flushLog(logs[i], out);
+                }
+            }
+        }
+        if (failurePolicy == FailurePolicy.FAIL_FAST && !failures.isEmpty()) {
+            Throwable cause = failures.get(0);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new GenerationException(cause);
+        }
+        checkFailures(failures, count, skipped);
+    }
+    
+    private Future<Integer> submit(CompletionService<Integer> completion, final RunContext context,
+            final GeneratorUnit unit, final ByteArrayOutputStream log) {
+        return completion.submit(new Callable<Integer>() {
+            public Integer call() {
+                PrintStream prev = setLogStream(new PrintStream(log, true));
+                Metrics prevMetrics = Metrics.setCurrent(context.getMetrics());
+                try {
+                    unit.run(context);
+                } catch (RuntimeException e) {
+                    if (failurePolicy == FailurePolicy.COLLECT_ALL) {
+                        reportFailure(unit, e);
+                    }
+                    throw e;
+                } finally {
+                    Metrics.setCurrent(prevMetrics);
+                    setLogStream(prev);
+                }
+                return 0;
+            }
+        });
+    }
+    
+    private static void flushLog(ByteArrayOutputStream log, PrintStream out) {
+        if (log.size() > 0) {
+            synchronized(out) {
+                out.write(log.toByteArray(), 0, log.size());
+                out.flush();
+            }
+        }
+    }
+    
+    private static void reportFailure(GeneratorUnit unit, Throwable t) {
+        printStackTrace(t);
+        printError("Generator failed for target[generator] = " + unit.getId());
+    }
+    
+    private static void reportSkipped(GeneratorUnit unit, GeneratorUnit failed) {
+        printError("Generator skipped for target[generator] = " + unit.getId() + ", as " + failed.getId() + " did not complete");
+    }
+    
+    private static void checkFailures(List<Throwable> failures, int count, int skipped) {
+        if (!failures.isEmpty()) {
+            throw new GenerationException(failures.size() + " of " + count + " generators failed" +
+                    (skipped > 0 ? ", " + skipped + " skipped" : ""), failures.get(0));
+        }
+    }
+
+}
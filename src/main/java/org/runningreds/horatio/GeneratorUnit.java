@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.runningreds.horatio.generator.Generator;
+
+/**
+ * One generator entry of a target, with its options, params and helpers
+ * layered over those of the enclosing scopes (see {@link Scope}).
+ */
+public class GeneratorUnit {
+
+    private final String targetName;
+    private final int index;
+    private final Map<String, Object> spec;
+    private final Generator generator;
+    // units that must finish before this one starts
+    private final List<GeneratorUnit> dependencies = new ArrayList<GeneratorUnit>(0);
+
+    public GeneratorUnit(String targetName, int index, Map<String, Object> spec, Generator generator) {
+        this.targetName = targetName;
+        this.index = index;
+        this.spec = spec;
+        this.generator = generator;
+    }
+
+    public String getTargetName() {
+        return targetName;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Map<String, Object> getSpec() {
+        return spec;
+    }
+
+    public Generator getGenerator() {
+        return generator;
+    }
+    
+    public List<GeneratorUnit> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+    
+    void addDependency(GeneratorUnit unit) {
+        if (!dependencies.contains(unit)) {
+            dependencies.add(unit);
+        }
+    }
+
+    public String getId() {
+        return GenspecUtil.getTargetGenId(targetName, index);
+    }
+
+    public void run(RunContext context) throws GenerationException {
+        long start = System.nanoTime();
+        try {
+            generator.generate(context, spec, targetName, index);
+        } finally {
+            context.getMetrics().time(Metrics.GENERATOR, start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+
+}
@@ -17,21 +17,48 @@
 package org.runningreds.horatio;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class GenspecUtil {
     private GenspecUtil(){};
+    
+    // lets the scheduler capture each generator's messages when running in parallel
+    private static final ThreadLocal<PrintStream> logStream = new ThreadLocal<PrintStream>();
+    
+    /**
+     * Redirects warnings, errors and stack traces printed by the current
+     * thread to <code>out</code>, or back to System.err if null.
+     * @return the previous log stream for this thread, or null
+     */
+    public static PrintStream setLogStream(PrintStream out) {
+        PrintStream prev = logStream.get();
+        if (out == null) {
+            logStream.remove();
+        } else {
+            logStream.set(out);
+        }
+        return prev;
+    }
+    
+    public static PrintStream getLogStream() {
+        PrintStream out = logStream.get();
+        return out == null ? System.err : out;
+    }
 
     public static void printWarning(String warningMessage) {
-        System.err.println("WARNING: " + warningMessage);
+        getLogStream().println("WARNING: " + warningMessage);
     }
 
     public static void printError(String errorMessage) {
-        System.err.println("ERROR: " + errorMessage);
+        getLogStream().println("ERROR: " + errorMessage);
+    }
+    
+    public static void printStackTrace(Throwable t) {
+        t.printStackTrace(getLogStream());
     }
     
     public static String getTargetGenId(String target, int generatorIndex) {
@@ -54,10 +81,52 @@ public class GenspecUtil {
     }
 
 
+    public static int getInt(String name, Map<String, ?> map, int deflt) {
+        Object value = map.get(name);
+        if (value instanceof Number) {
+            return ((Number)value).intValue();
+        }
+        if (value != null) {
+            String s = value.toString().trim();
+            if (s.length() > 0) {
+                try {
+                    return Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    throw new GenspecException("Invalid integer value for " + name + ": " + s);
+                }
+            }
+        }
+        return deflt;
+    }
+
+    public static boolean getBoolean(String name, Map<String, ?> map, boolean deflt) {
+        Object value = map.get(name);
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+        if (value != null) {
+            String s = value.toString().trim();
+            if ("true".equalsIgnoreCase(s) || "yes".equalsIgnoreCase(s)) {
+                return true;
+            }
+            if ("false".equalsIgnoreCase(s) || "no".equalsIgnoreCase(s)) {
+                return false;
+            }
+            if (s.length() > 0) {
+                throw new GenspecException("Invalid boolean value for " + name + ": " + s);
+            }
+        }
+        return deflt;
+    }
+
+    /**
+     * Returns the map (or {@link Scope}) named <code>name</code>, or an
+     * empty scope if there is none.
+     */
     @SuppressWarnings("unchecked")
-    public static HashMap<String, Object> getMap(String name, Map<String, ?> container) {
-        HashMap<String, Object> map = (HashMap<String, Object>)container.get(name);
-        return map == null ? new HashMap<String, Object>(2) : map;
+    public static Map<String, Object> getMap(String name, Map<String, ?> container) {
+        Map<String, Object> map = (Map<String, Object>)container.get(name);
+        return map == null ? Scope.EMPTY : map;
     }
     
     @SuppressWarnings("unchecked")
@@ -27,8 +27,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.runningreds.horatio.generator.Generator;
-import org.runningreds.horatio.generator.VelocityGenerator;
+import org.runningreds.horatio.parser.ModelCache;
+import org.runningreds.horatio.parser.ModelStore;
 import org.runningreds.horatio.parser.Parsers;
 
 
@@ -61,10 +61,27 @@ public class Horatio {
     public static final String OPT_FILENAME_PREFIX     = "filename_prefix";
     public static final String OPT_FILENAME_SUFFIX     = "filename_suffix";
     public static final String OPT_FILENAME_EXTENSION  = "filename_extension";
+    public static final String OPT_MODEL_CACHE_DIR     = "model_cache_dir";
+    public static final String OPT_PARALLELISM         = "parallelism";
+    public static final String OPT_FAILURE_POLICY      = "failure_policy";
+    public static final String OPT_RENDER_PARALLELISM  = "render_parallelism";
+    public static final String OPT_INCREMENTAL         = "incremental";
+    public static final String OPT_STATE_FILE          = "state_file";
+    public static final String OPT_OUTPUT_CACHE        = "output_cache";
+    public static final String OPT_OUTPUT_CACHE_DIR    = "output_cache_dir";
+    public static final String OPT_DAEMON              = "daemon";
+    public static final String OPT_DAEMON_PORT         = "daemon_port";
+    public static final String OPT_WATCH               = "watch";
+    public static final String OPT_REMOTE              = "remote";
+    public static final String OPT_METRICS_FILE        = "metrics_file";
+    public static final String OPT_PLAN                = "plan";
+    public static final String OPT_DEPENDS_ON          = "depends_on";
     
     
     private final Map<String, Object> mainOptions;
     private final Map<String, Object> genspec;
+    private final long genspecParseNanos;
+    private ExecutionPlan plan;
     
     
     public Horatio(Map<String, Object> mainOptions) throws HoratioException {
@@ -89,6 +106,7 @@ public class Horatio {
                 throw new GenspecException("No genspec file specified and " + filenames.length + " found in current directory");
             }
         }
+        long start = System.nanoTime();
         if (genspecFilename.startsWith("http:") || genspecFilename.startsWith("https:")) {
             try {
                 this.genspec = Parsers.parseGenspec(new URL(genspecFilename));
@@ -100,77 +118,50 @@ public class Horatio {
             checkFileReadable(genspecFile, "Genspec file");
             this.genspec = Parsers.parseGenspec(genspecFile);
         }
+        this.genspecParseNanos = System.nanoTime() - start;
     }
     
-    @SuppressWarnings("unchecked")
     public void run() throws HoratioException {
-        Map<String, Object> globalSection = getMap(SECTION_GLOBAL, genspec);
-        HashMap<String, Object> globalOptions = new HashMap<String, Object>(getMap(SECTION_OPTIONS, globalSection));
-        // command line options override matching global options (and later, below, target options)
-        globalOptions.putAll(mainOptions);
-        HashMap<String, Object> globalParams = getMap(SECTION_PARAMS, globalSection);
-        
-        List<Object> targetNames = getList(OPT_TARGET, globalOptions);
-        boolean allTargets = targetNames.isEmpty() || targetNames.contains("all");
-        
-        Map<String, Object> targets = getMap(SECTION_TARGETS, genspec);
-        for (Map.Entry<String, Object> targetEntry : targets.entrySet()) {
-            String targetName = targetEntry.getKey();
-            if (allTargets || targetNames.contains(targetName)) {
-                Map<String, Object> target = getMap(targetName, targets);
-                
-                // merge target options into copy of global options, overriding any that match
-                HashMap<String, Object> targetOpts = (HashMap<String, Object>)globalOptions.clone();
-                targetOpts.putAll(getMap(SECTION_OPTIONS, target));
-                
-                // merge target params into copy of global params, overriding any that match
-                HashMap<String, Object> targetParams = (HashMap<String, Object>)globalParams.clone();
-                targetParams.putAll(getMap(SECTION_PARAMS, target));
-                
-                HashMap<String, Object> targetHelpers = getMap(SECTION_HELPERS, target);
-
-                List<Map<String, Object>> generators = (List<Map<String, Object>>)(Object)getList(SECTION_GENERATORS, target);
-                for (int i = 0, limit = generators.size(); i < limit; i++) {
-                    Map<String, Object> gen = generators.get(i);
-                    // merge generator options into copy of target options, overriding any that match
-                    HashMap<String, Object> genOpts = (HashMap<String, Object>)targetOpts.clone();
-                    genOpts.putAll(getMap(SECTION_OPTIONS, gen));
-                    
-                    // merge generator params into copy of target params, overriding any that match
-                    HashMap<String, Object> genParams = (HashMap<String, Object>)targetParams.clone();
-                    genParams.putAll(getMap(SECTION_PARAMS, gen));
-                    
-                    // merge generator helpers into copy of target helpers, overriding any that match
-                    HashMap<String, Object> genHelpers = (HashMap<String, Object>)targetHelpers.clone();
-                    genHelpers.putAll(getMap(SECTION_HELPERS, gen));
-                    
-                    // put merged maps back into generator map
-                    gen.put(SECTION_OPTIONS, genOpts);
-                    gen.put(SECTION_PARAMS, genParams);
-                    gen.put(SECTION_HELPERS, genHelpers);
-                    
-                    // instantiate generator class
-                    Generator generator;
-                    String genClassName = getString(OPT_GENERATOR_CLASS, gen);
-                    if (genClassName == null || (genClassName = genClassName.trim()).isEmpty()) {
-                        generator = new VelocityGenerator();
-//                        printWarning("No generator class specified for target[generator] = " +
-//                                targetName + "[" + i + "] -- using VelocityGenerator");
-                    } else {
-                        try {
-                            Class<?> genClass = Class.forName(genClassName);
-                            generator = (Generator)genClass.getConstructor(new Class[]{}).newInstance(new Object[]{});
-                        } catch (Exception e) {
-                            printError("Invalid generator class specified for target[generator] = " + 
-                                    targetName + "[" + i + "] -- skipping");
-                            throw new GenspecException(e);
-                        }
-                    }
-                    
-                    generator.generate(gen, targetName, i);
-                }
-            }
+        run(new RunContext(new ModelCache(getModelStore())));
+    }
+    
+    /**
+     * Returns the persistent model cache named by the options, or null.
+     */
+    ModelStore getModelStore() {
+        String cacheDir = getString(OPT_MODEL_CACHE_DIR, getPlan().getGlobalOptions());
+        return cacheDir == null ? null : new ModelStore(new File(cacheDir));
+    }
+    
+    /**
+     * Returns the plan compiled from the genspec for the selected targets;
+     * it is compiled on first use, and reused by later runs.
+     */
+    public synchronized ExecutionPlan getPlan() {
+        if (plan == null) {
+            plan = ExecutionPlan.compile(genspec, mainOptions);
         }
+        return plan;
+    }
+    
+    public void run(RunContext context) throws HoratioException {
+        generate(context);
+        System.out.println("Horatio: " + context.getOutputWriter().getSummary());
+    }
+    
+    /**
+     * Runs the selected targets like {@link #run(RunContext)}, but leaves
+     * reporting the outcome to the caller.
+     * @throws GenspecException if the genspec has errors, before any
+     *         generator is run
+     */
+    public void generate(RunContext context) throws HoratioException {
+        Metrics metrics = context.getMetrics();
+        metrics.add(Metrics.GENSPEC_PARSE, genspecParseNanos);
+        long start = System.nanoTime();
+        ExecutionPlan plan = getPlan();
+        metrics.time(Metrics.OPTION_MERGE, start);
+        plan.execute(context);
     }
     
     
@@ -188,6 +179,18 @@ public class Horatio {
         out.println("-i, --indir <path_or_url>       : Base template directory");
         out.println("-c, --charset <arg>             : Output charset (e.g. UTF8)");
         out.println("-t, --target <arg> [<arg> ...]  : Genspec target(s) to execute");
+        out.println("-j, --jobs <n>                  : Number of generators to run in parallel");
+        out.println("--failure-policy <arg>          : fail_fast (default) or collect_all");
+        out.println("--model-cache <path>            : Directory for cached parsed models");
+        out.println("--incremental                   : Regenerate only files whose inputs changed");
+        out.println("--state-file <path>             : Incremental state file (.horatio-state)");
+        out.println("--output-cache <path>           : Directory for cached generated files");
+        out.println("--metrics <path>                : Write a JSON report of run timings and counts");
+        out.println("--plan                          : Check the genspec and print what would be run");
+        out.println("--daemon                        : Keep running, serving generation requests");
+        out.println("--port <n>                      : Daemon port on the loopback interface");
+        out.println("--watch                         : Regenerate whenever an input changes");
+        out.println("--remote                        : Send this request to the running daemon");
         out.println("-v, --version                   : Show Horatio version");
         out.println("-h, --help                      : Show this usage information");
     }
@@ -204,6 +207,43 @@ public class Horatio {
                 System.exit(0);
             }
         }
+        Map<String, Object> options;
+        try {
+            options = parseArgs(args);
+        } catch (GenspecException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            printUsage(System.err);
+            System.exit(-1);
+            return;
+        }
+        try {
+            if (getBoolean(OPT_REMOTE, options, false)) {
+                System.exit(HoratioDaemon.request(args, System.out));
+            } else if (getBoolean(OPT_DAEMON, options, false) || getBoolean(OPT_WATCH, options, false)) {
+                HoratioDaemon daemon = new HoratioDaemon(options);
+                daemon.start();
+                daemon.await();
+            } else if (getBoolean(OPT_PLAN, options, false)) {
+                ExecutionPlan plan = new Horatio(options).getPlan();
+                plan.print(System.out);
+                System.exit(plan.isValid() ? 0 : -1);
+            } else {
+                Horatio h = new Horatio(options);
+                h.run();
+            }
+        } catch (Exception e) {
+            // FIXME: skip stack trace on input/config errors. need distinct exception type.
+            e.printStackTrace();
+            printError("Horatio terminated abnormally");
+            System.exit(-1);
+        }
+    }
+    
+    /**
+     * Parses command line arguments into main options.
+     * @throws GenspecException if an argument is invalid or missing
+     */
+    public static Map<String, Object> parseArgs(String[] args) throws GenspecException {
         Map<String, Object> options = new HashMap<String, Object>();
         for (int i = 0, argc = args.length; i < argc; i++) {
             String opt = args[i];
@@ -217,6 +257,30 @@ public class Horatio {
                 options.put(OPT_BASE_INPUT_DIR, args[i]);
             } else if (("-c".equals(opt) || "--charset".equals(opt)) && ++i < argc) {
                 options.put(OPT_CHARSET, args[i]);
+            } else if (("-j".equals(opt) || "--jobs".equals(opt)) && ++i < argc) {
+                options.put(OPT_PARALLELISM, args[i]);
+            } else if ("--failure-policy".equals(opt) && ++i < argc) {
+                options.put(OPT_FAILURE_POLICY, args[i]);
+            } else if ("--model-cache".equals(opt) && ++i < argc) {
+                options.put(OPT_MODEL_CACHE_DIR, args[i]);
+            } else if ("--incremental".equals(opt)) {
+                options.put(OPT_INCREMENTAL, Boolean.TRUE);
+            } else if ("--state-file".equals(opt) && ++i < argc) {
+                options.put(OPT_STATE_FILE, args[i]);
+            } else if ("--output-cache".equals(opt) && ++i < argc) {
+                options.put(OPT_OUTPUT_CACHE_DIR, args[i]);
+            } else if ("--metrics".equals(opt) && ++i < argc) {
+                options.put(OPT_METRICS_FILE, args[i]);
+            } else if ("--plan".equals(opt)) {
+                options.put(OPT_PLAN, Boolean.TRUE);
+            } else if ("--daemon".equals(opt)) {
+                options.put(OPT_DAEMON, Boolean.TRUE);
+            } else if ("--port".equals(opt) && ++i < argc) {
+                options.put(OPT_DAEMON_PORT, args[i]);
+            } else if ("--watch".equals(opt)) {
+                options.put(OPT_WATCH, Boolean.TRUE);
+            } else if ("--remote".equals(opt)) {
+                options.put(OPT_REMOTE, Boolean.TRUE);
             } else if (("-t".equals(opt) || "--target".equals(opt)) && ++i < argc) {
                 List<String> targets = new ArrayList<String>();
                 while (true) {
@@ -230,20 +294,10 @@ public class Horatio {
                 }
                 options.put(OPT_TARGET, targets);
             } else {
-                System.err.println("ERROR: Invalid or missing argument");
-                printUsage(System.err);
-                System.exit(-1);
+                throw new GenspecException("Invalid or missing argument: " + opt);
             }
         }
-        try {
-            Horatio h = new Horatio(options);
-            h.run();
-        } catch (Exception e) {
-            // FIXME: skip stack trace on input/config errors. need distinct exception type.
-            e.printStackTrace();
-            printError("Horatio terminated abnormally");
-            System.exit(-1);
-        }
+        return options;
     }
     
     
@@ -0,0 +1,418 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.runningreds.horatio.GenspecUtil.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.runningreds.horatio.generator.VelocityEngineRegistry;
+import org.runningreds.horatio.parser.ModelCache;
+
+/**
+ * Keeps a Horatio process running, so that parsed models, Velocity engines
+ * and templates, and the JIT-compiled parser and generator code stay warm
+ * from one generation run to the next.
+ * <p>
+ * With {@link Horatio#OPT_DAEMON}, generation requests are served on a
+ * loopback port, which is recorded together with a random access token in
+ * {@link #PORT_FILE} in the daemon's working directory, readable only by
+ * its owner. A request is the token, the client's working directory and the
+ * client's command line arguments, one per line, ended by an empty line.
+ * The reply is the run's log and summary, followed by a final
+ * <code>horatio-exit: &lt;status&gt;</code> line. Request options are merged
+ * over the daemon's own. Since genspecs name files relative to the working
+ * directory, requests are only accepted from the daemon's own.
+ * <p>
+ * With {@link Horatio#OPT_WATCH}, the daemon's own options are run once, and
+ * run again, incrementally, whenever the genspec or a model or template read
+ * by the previous run changes.
+ * <p>
+ * Runs are serialized: concurrent runs would race on shared output
+ * directories and incremental state.
+ */
+public class HoratioDaemon {
+
+    public static final String PORT_FILE = ".horatio-daemon";
+    public static final String EXIT_PREFIX = "horatio-exit: ";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // quiet period after a change, so the burst of events from one save triggers one run
+    private static final long SETTLE_MILLIS = 50;
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+    
+    private final Map<String, Object> options;
+    private final boolean daemon;
+    private final boolean watch;
+    private final int port;
+    private final File workingDir;
+    private final File portFile;
+    private final ModelCache modelCache;
+    private final VelocityEngineRegistry velocityEngines = new VelocityEngineRegistry();
+    private final Object runLock = new Object();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final String token;
+    private volatile ServerSocket server;
+    private volatile WatchService watchService;
+    
+    public HoratioDaemon(Map<String, Object> mainOptions) throws HoratioException {
+        this.options = new HashMap<String, Object>(mainOptions);
+        options.remove(Horatio.OPT_DAEMON);
+        options.remove(Horatio.OPT_DAEMON_PORT);
+        options.remove(Horatio.OPT_WATCH);
+        options.remove(Horatio.OPT_REMOTE);
+        // fail now on a missing or invalid genspec, rather than on the first request
+        Horatio horatio = new Horatio(options);
+        this.modelCache = new ModelCache(horatio.getModelStore());
+        try {
+            this.workingDir = new File(".").getCanonicalFile();
+        } catch (IOException e) {
+            throw new HoratioException("Error resolving working directory", e);
+        }
+        this.portFile = new File(workingDir, PORT_FILE);
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        this.token = DigestUtil.toHex(bytes);
+        this.daemon = getBoolean(Horatio.OPT_DAEMON, mainOptions, false);
+        this.watch = getBoolean(Horatio.OPT_WATCH, mainOptions, false);
+        this.port = getInt(Horatio.OPT_DAEMON_PORT, mainOptions, 0);
+    }
+    
+    /**
+     * Starts serving requests and/or watching inputs, as selected by the
+     * options; returns once the daemon is listening and any initial watch
+     * run is done.
+     */
+    public void start() throws HoratioException {
+        Runtime.getRuntime().addShutdownHook(new Thread("horatio-daemon-shutdown") {
+            public void run() {
+                HoratioDaemon.this.stop();
+            }
+        });
+        if (daemon) {
+            try {
+                server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+                writePortFile(server.getLocalPort());
+            } catch (IOException e) {
+                stop();
+                throw new HoratioException("Error starting Horatio daemon", e);
+            }
+            Thread acceptor = new Thread("horatio-daemon") {
+                public void run() {
+                    serve();
+                }
+            };
+            acceptor.start();
+            System.out.println("Horatio: daemon listening on " + server.getInetAddress().getHostAddress() +
+                    ":" + server.getLocalPort());
+        }
+        if (watch) {
+            final Map<String, Object> watchOptions = new HashMap<String, Object>(options);
+            if (!watchOptions.containsKey(Horatio.OPT_INCREMENTAL)) {
+                watchOptions.put(Horatio.OPT_INCREMENTAL, Boolean.TRUE);
+            }
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+            } catch (IOException e) {
+                stop();
+                throw new HoratioException("Error starting file watcher", e);
+            }
+            generate(watchOptions, System.out);
+            Thread watcher = new Thread("horatio-watch") {
+                public void run() {
+                    watch(watchOptions);
+                }
+            };
+            watcher.setDaemon(daemon);
+            watcher.start();
+            System.out.println("Horatio: watching for changes");
+        }
+    }
+    
+    /**
+     * Waits until the daemon is stopped.
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+    
+    public synchronized void stop() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            portFile.delete();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        stopped.countDown();
+    }
+    
+    /**
+     * Runs Horatio with <code>options</code> over the daemon's warm caches,
+     * writing its log and summary to <code>out</code>.
+     * @return 0 if the run succeeded, -1 if it failed
+     */
+    public int generate(Map<String, Object> options, PrintStream out) {
+        synchronized(runLock) {
+            PrintStream prev = setLogStream(out);
+            try {
+                // retry models that failed last time, e.g. for want of an include
+                modelCache.evictFailures();
+                Horatio horatio = new Horatio(new HashMap<String, Object>(options));
+                RunContext context = new RunContext(modelCache, velocityEngines);
+                horatio.generate(context);
+                out.println("Horatio: " + context.getOutputWriter().getSummary());
+                return 0;
+            } catch (Exception e) {
+                printStackTrace(e);
+                printError("Horatio terminated abnormally");
+                return -1;
+            } finally {
+                out.flush();
+                setLogStream(prev);
+            }
+        }
+    }
+    
+    private void serve() {
+        while (stopped.getCount() > 0) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    printError("Horatio daemon failed to accept connection: " + e);
+                    stop();
+                }
+                return;
+            }
+            Thread handler = new Thread("horatio-request") {
+                public void run() {
+                    handle(socket);
+                }
+            };
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+    
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            PrintStream out = new PrintStream(socket.getOutputStream(), true, UTF8.name());
+            int status = -1;
+            String requestToken = in.readLine();
+            String clientDir = in.readLine();
+            List<String> args = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                args.add(line);
+            }
+            // a run may take longer than it takes to send a request
+            socket.setSoTimeout(0);
+            if (requestToken == null || !MessageDigest.isEqual(token.getBytes(UTF8), requestToken.getBytes(UTF8))) {
+                out.println("ERROR: Invalid Horatio daemon token");
+            } else if (clientDir == null || !workingDir.equals(new File(clientDir).getCanonicalFile())) {
+                out.println("ERROR: Horatio daemon serves " + workingDir + ", not " + clientDir);
+            } else {
+                Map<String, Object> requestOptions = new HashMap<String, Object>(options);
+                try {
+                    requestOptions.putAll(Horatio.parseArgs(args.toArray(new String[args.size()])));
+                    requestOptions.remove(Horatio.OPT_REMOTE);
+                    status = generate(requestOptions, out);
+                } catch (GenspecException e) {
+                    out.println("ERROR: " + e.getMessage());
+                }
+            }
+            out.println(EXIT_PREFIX + status);
+            out.flush();
+        } catch (IOException e) {
+            printWarning("Horatio daemon request failed: " + e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+    
+    private void writePortFile(int port) throws IOException {
+        Path path = portFile.toPath();
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        Files.write(path, (port + " " + token + "\n").getBytes(UTF8));
+    }
+    
+    private void watch(Map<String, Object> watchOptions) {
+        Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+        Set<Path> registered = new HashSet<Path>();
+        try {
+            while (true) {
+                Set<Path> inputs = new HashSet<Path>();
+                Set<Path> templates = new HashSet<Path>();
+                collectInputs(watchOptions, inputs, templates);
+                for (Path input : inputs) {
+                    Path dir = input.getParent();
+                    if (dir != null && registered.add(dir)) {
+                        try {
+                            dirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                        } catch (IOException e) {
+                            printWarning("Unable to watch " + dir + ": " + e);
+                        }
+                    }
+                }
+                
+                boolean changed = false;
+                WatchKey key = watchService.take();
+                do {
+                    Path dir = dirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            velocityEngines.clear();
+                            changed = true;
+                            continue;
+                        }
+                        Path file = dir.resolve((Path)event.context());
+                        if (inputs.contains(file)) {
+                            if (templates.contains(file)) {
+                                velocityEngines.invalidate(file.toFile());
+                            }
+                            changed = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        dirs.remove(key);
+                        registered.remove(dir);
+                    }
+                } while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                
+                if (changed) {
+                    generate(watchOptions, System.out);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+    
+    private void collectInputs(Map<String, Object> watchOptions, Set<Path> inputs, Set<Path> templates) {
+        String genspec = getString(Horatio.OPT_GENSPEC_FILE, watchOptions);
+        if (genspec != null && !isUrl(genspec)) {
+            inputs.add(normalize(new File(genspec)));
+        }
+        for (File file : modelCache.getFiles()) {
+            inputs.add(normalize(file));
+        }
+        for (File file : velocityEngines.getTemplateFiles()) {
+            templates.add(normalize(file));
+        }
+        inputs.addAll(templates);
+    }
+    
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+    
+    /**
+     * Sends the request on the command line to the daemon running in the
+     * current directory, copying its reply to <code>out</code>.
+     * @return the exit status of the daemon's run
+     */
+    public static int request(String[] args, PrintStream out) throws IOException {
+        File portFile = new File(PORT_FILE);
+        if (!portFile.isFile()) {
+            throw new HoratioException("No Horatio daemon running in " + new File(".").getCanonicalPath() +
+                    " (" + PORT_FILE + " not found)");
+        }
+        String[] portAndToken = new String(Files.readAllBytes(portFile.toPath()), UTF8).trim().split(" ");
+        if (portAndToken.length != 2) {
+            throw new HoratioException("Invalid Horatio daemon port file " + portFile.getCanonicalPath());
+        }
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0]));
+        try {
+            PrintWriter requestOut = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+            requestOut.print(portAndToken[1] + "\n");
+            requestOut.print(new File(".").getCanonicalPath() + "\n");
+            for (String arg : args) {
+                if (!"--remote".equals(arg)) {
+                    requestOut.print(arg + "\n");
+                }
+            }
+            requestOut.print("\n");
+            requestOut.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(EXIT_PREFIX)) {
+                    return Integer.parseInt(line.substring(EXIT_PREFIX.length()).trim());
+                }
+                out.println(line);
+            }
+            throw new HoratioException("Horatio daemon closed connection before completing request");
+        } finally {
+            socket.close();
+        }
+    }
+
+}
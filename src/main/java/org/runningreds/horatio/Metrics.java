@@ -0,0 +1,219 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings and counts for one Horatio run, reported as JSON.
+ * <p>
+ * A phase is timed each time it runs; the report gives its count, total,
+ * median (p50), p99 and maximum time. Phases nest: e.g.
+ * {@link #MODEL_PARSE} includes the {@link #INCLUDE_RESOLVE} of the
+ * model's includes, and {@link #GENERATOR} everything a generator does.
+ * <p>
+ * Code that has no {@link RunContext} at hand, such as the parsers, records
+ * into the metrics {@link #current() current} for its thread; the scheduler
+ * sets them for each generator, and code that hands work to other threads
+ * carries them along.
+ */
+public class Metrics {
+
+    public static final String GENSPEC_PARSE    = "genspec_parse";
+    public static final String OPTION_MERGE     = "option_merge";
+    public static final String GENERATOR        = "generator";
+    public static final String MODEL_PARSE      = "model_parse";
+    public static final String INCLUDE_RESOLVE  = "include_resolve";
+    public static final String ENGINE_INIT      = "engine_init";
+    public static final String TEMPLATE_LOAD    = "template_load";
+    public static final String TEMPLATE_MERGE   = "template_merge";
+    public static final String FILE_WRITE       = "file_write";
+    
+    public static final String MODELS_PARSED    = "models_parsed";
+    public static final String MODELS_CACHED    = "models_cached";
+    public static final String MODELS_STORED    = "models_stored";
+    public static final String MODEL_BYTES      = "model_bytes";
+    public static final String FILES_WRITTEN    = "files_written";
+    public static final String FILES_UNCHANGED  = "files_unchanged";
+    public static final String FILES_UP_TO_DATE = "files_up_to_date";
+    public static final String BYTES_WRITTEN    = "bytes_written";
+    public static final String OUTPUTS_CACHED   = "outputs_cached";
+    public static final String OUTPUTS_STORED   = "outputs_stored";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    // records nothing, for threads outside of any run
+    private static final Metrics NONE = new Metrics(false);
+    
+    private static final ThreadLocal<Metrics> current = new ThreadLocal<Metrics>();
+    
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    // guarded by this
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private final Map<String, long[]> counters = new LinkedHashMap<String, long[]>();
+    
+    public Metrics() {
+        this(true);
+    }
+    
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * Returns the metrics that the current thread records into; never null.
+     */
+    public static Metrics current() {
+        Metrics metrics = current.get();
+        return metrics == null ? NONE : metrics;
+    }
+    
+    /**
+     * Makes <code>metrics</code> current for this thread, or none if null.
+     * @return the previously current metrics, or null
+     */
+    public static Metrics setCurrent(Metrics metrics) {
+        Metrics prev = current.get();
+        if (metrics == null || metrics == NONE) {
+            current.remove();
+        } else {
+            current.set(metrics);
+        }
+        return prev;
+    }
+    
+    /**
+     * Records one run of <code>phase</code>, started at
+     * <code>startNanos</code> (per System.nanoTime) and ending now.
+     */
+    public void time(String phase, long startNanos) {
+        if (enabled) {
+            add(phase, System.nanoTime() - startNanos);
+        }
+    }
+    
+    /**
+     * Records one run of <code>phase</code> that took <code>nanos</code>.
+     */
+    public synchronized void add(String phase, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        Phase p = phases.get(phase);
+        if (p == null) {
+            phases.put(phase, p = new Phase());
+        }
+        p.add(nanos);
+    }
+    
+    public synchronized void count(String counter, long delta) {
+        if (!enabled) {
+            return;
+        }
+        long[] value = counters.get(counter);
+        if (value == null) {
+            counters.put(counter, value = new long[1]);
+        }
+        value[0] += delta;
+    }
+    
+    public synchronized long getCount(String counter) {
+        long[] value = counters.get(counter);
+        return value == null ? 0 : value[0];
+    }
+    
+    public synchronized int getPhaseCount(String phase) {
+        Phase p = phases.get(phase);
+        return p == null ? 0 : p.count;
+    }
+    
+    /**
+     * Writes the report, as a JSON object, to <code>out</code>.
+     */
+    public synchronized void writeJson(Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"elapsed_ms\": " + millis(System.nanoTime() - startNanos) + ",\n");
+        out.write("  \"counters\": {");
+        String sep = "\n";
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            out.write(sep + "    \"" + entry.getKey() + "\": " + entry.getValue()[0]);
+            sep = ",\n";
+        }
+        out.write(counters.isEmpty() ? "},\n" : "\n  },\n");
+        out.write("  \"phases\": {");
+        sep = "\n";
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase p = entry.getValue();
+            long[] sorted = Arrays.copyOf(p.samples, p.count);
+            Arrays.sort(sorted);
+            out.write(sep + "    \"" + entry.getKey() + "\": { \"count\": " + p.count +
+                    ", \"total_ms\": " + millis(p.total) +
+                    ", \"p50_ms\": " + millis(percentile(sorted, 50)) +
+                    ", \"p99_ms\": " + millis(percentile(sorted, 99)) +
+                    ", \"max_ms\": " + millis(sorted[sorted.length - 1]) + " }");
+            sep = ",\n";
+        }
+        out.write(phases.isEmpty() ? "}\n" : "\n  }\n");
+        out.write("}\n");
+        out.flush();
+    }
+    
+    public void writeJson(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            writeJson(out);
+        } finally {
+            out.close();
+        }
+    }
+    
+    // nearest-rank percentile of sorted samples
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+    
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+    
+    private static class Phase {
+        int count;
+        long total;
+        long[] samples = new long[16];
+        
+        void add(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+            total += nanos;
+        }
+    }
+
+}
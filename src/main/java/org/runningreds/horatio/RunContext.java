@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.runningreds.horatio.generator.IncrementalState;
+import org.runningreds.horatio.generator.OutputCache;
+import org.runningreds.horatio.generator.OutputWriter;
+import org.runningreds.horatio.generator.VelocityEngineRegistry;
+import org.runningreds.horatio.model.DependencyGraph;
+import org.runningreds.horatio.model.ModelSet;
+import org.runningreds.horatio.parser.ModelCache;
+
+/**
+ * State shared by all generators within a single Horatio run.
+ */
+public class RunContext {
+
+    private final ModelCache modelCache;
+    private final VelocityEngineRegistry velocityEngines;
+    private final OutputWriter outputWriter = new OutputWriter();
+    private final Metrics metrics = new Metrics();
+    private final Map<ModelSet, DependencyGraph> dependencyGraphs = new IdentityHashMap<ModelSet, DependencyGraph>();
+    private volatile IncrementalState incrementalState;
+    private volatile OutputCache outputCache;
+    // guarded by this
+    private ThreadPoolExecutor renderPool;
+
+    public RunContext() {
+        this(new ModelCache());
+    }
+
+    public RunContext(ModelCache modelCache) {
+        this(modelCache, new VelocityEngineRegistry());
+    }
+
+    /**
+     * Creates a context over caches that may outlive the run, e.g. to keep
+     * models and templates warm across the runs of a long-lived process.
+     */
+    public RunContext(ModelCache modelCache, VelocityEngineRegistry velocityEngines) {
+        if (modelCache == null) {
+            throw new IllegalArgumentException("modelCache");
+        }
+        if (velocityEngines == null) {
+            throw new IllegalArgumentException("velocityEngines");
+        }
+        this.modelCache = modelCache;
+        this.velocityEngines = velocityEngines;
+    }
+
+    public ModelCache getModelCache() {
+        return modelCache;
+    }
+
+    public VelocityEngineRegistry getVelocityEngines() {
+        return velocityEngines;
+    }
+
+    /**
+     * Returns the writer generators should use for output files; it skips
+     * files whose content is unchanged and counts files for the run report.
+     */
+    public OutputWriter getOutputWriter() {
+        return outputWriter;
+    }
+
+    /**
+     * Returns the run's timings and counts.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the state of the previous run's outputs, or null if this run
+     * is not incremental.
+     */
+    public IncrementalState getIncrementalState() {
+        return incrementalState;
+    }
+
+    /**
+     * Makes this run incremental; must be set before any generator runs.
+     */
+    public void setIncrementalState(IncrementalState incrementalState) {
+        this.incrementalState = incrementalState;
+    }
+
+    /**
+     * Returns the cache of previously generated content, or null if this
+     * run does not use one.
+     */
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    /**
+     * Sets the output cache; must be set before any generator runs.
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Returns the pool that generators render files on. It is shared by all
+     * the generators of the run, so however many of them run at once, no
+     * more files are rendered at a time than there are processors. Its
+     * threads are daemons, and end once idle.
+     */
+    public synchronized ExecutorService getRenderPool() {
+        if (renderPool == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            renderPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), RENDER_THREAD_FACTORY);
+            renderPool.allowCoreThreadTimeOut(true);
+        }
+        return renderPool;
+    }
+
+    /**
+     * Returns the dependency graph of <code>modelSet</code>, building it
+     * on first request.
+     */
+    public DependencyGraph getDependencyGraph(ModelSet modelSet) {
+        synchronized(dependencyGraphs) {
+            DependencyGraph graph = dependencyGraphs.get(modelSet);
+            if (graph == null) {
+                dependencyGraphs.put(modelSet, graph = new DependencyGraph(modelSet));
+            }
+            return graph;
+        }
+    }
+
+    private static final ThreadFactory RENDER_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "horatio-render-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+}
@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only map of genspec options, params or helpers layered over those
+ * of an enclosing scope (global, then target, then generator). Creating a
+ * scope just links it to its parent, without copying; a lookup checks each
+ * layer in turn, innermost first, so an inner layer overrides any entry of
+ * the same name further out. The layers are used in place, so they must not
+ * be changed while the scope is in use.
+ */
+public final class Scope extends AbstractMap<String, Object> {
+    
+    public static final Scope EMPTY = new Scope(null, Collections.<String, Object>emptyMap());
+    
+    private final Scope parent;
+    private final Map<String, ?> layer;
+    // every entry visible in this scope, merged on first use
+    private volatile Set<Map.Entry<String, Object>> entries;
+    
+    private Scope(Scope parent, Map<String, ?> layer) {
+        this.parent = parent;
+        this.layer = layer;
+    }
+    
+    /**
+     * Returns an outermost scope with the entries of <code>layer</code>.
+     */
+    public static Scope of(Map<String, ?> layer) {
+        if (layer instanceof Scope) {
+            return (Scope)layer;
+        }
+        return EMPTY.with(layer);
+    }
+    
+    /**
+     * Returns a scope in which the entries of <code>layer</code> override
+     * those of this one.
+     */
+    public Scope with(Map<String, ?> layer) {
+        if (layer == null || layer.isEmpty()) {
+            return this;
+        }
+        return new Scope(this == EMPTY ? null : this, layer);
+    }
+    
+    public Scope getParent() {
+        return parent;
+    }
+    
+    @Override
+    public Object get(Object key) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Object value = scope.layer.get(key);
+            if (value != null || scope.layer.containsKey(key)) {
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.layer.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        // layers are never empty, other than that of EMPTY
+        return this == EMPTY;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Set<Map.Entry<String, Object>> entries = this.entries;
+        if (entries == null) {
+            List<Map<String, ?>> layers = new ArrayList<Map<String, ?>>();
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                layers.add(scope.layer);
+            }
+            Map<String, Object> merged = new HashMap<String, Object>();
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                merged.putAll(layers.get(i));
+            }
+            this.entries = entries = Collections.unmodifiableMap(merged).entrySet();
+        }
+        return entries;
+    }
+}
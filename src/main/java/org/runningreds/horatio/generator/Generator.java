@@ -19,6 +19,7 @@ package org.runningreds.horatio.generator;
 import java.util.Map;
 
 import org.runningreds.horatio.GenerationException;
+import org.runningreds.horatio.RunContext;
 import org.runningreds.horatio.model.ThriftModel;
 
 public interface Generator {
@@ -26,6 +27,12 @@ public interface Generator {
     
     String getName();
     
-    void generate(Map<String, Object> generatorSpec, String targetName, int generatorIndex) throws GenerationException;
+    /**
+     * Runs one generator entry of a genspec target.
+     * @param context state shared across the run, e.g. the parsed-model cache.
+     *        Generators should obtain models from its model cache rather than
+     *        parsing them directly.
+     */
+    void generate(RunContext context, Map<String, Object> generatorSpec, String targetName, int generatorIndex) throws GenerationException;
 
 }
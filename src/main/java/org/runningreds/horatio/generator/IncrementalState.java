@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.generator;
+
+import static org.runningreds.horatio.GenspecUtil.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records, for each generated file, the key of the inputs it was generated
+ * from (template, generator settings and the fingerprint of the model
+ * definitions it depends on), along with the digests of any other templates
+ * it was rendered from, so that a later run can skip any file whose key and
+ * templates are unchanged.
+ * <p>
+ * A file is only skipped if it still has the length and modification time
+ * recorded when it was generated, so files that have been deleted or edited
+ * since are regenerated. Entries for files not generated in a run are kept,
+ * so runs of different targets may share one state file.
+ */
+public class IncrementalState {
+    
+    private static final String HEADER = "# horatio incremental state 2";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final File file;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    
+    private IncrementalState(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Loads the state saved in <code>file</code>. A missing file yields an
+     * empty state; an unreadable one yields an empty state and a warning.
+     */
+    public static IncrementalState load(File file) {
+        IncrementalState state = new IncrementalState(file);
+        if (file.isFile()) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+                try {
+                    if (!HEADER.equals(in.readLine())) {
+                        printWarning("Ignoring incremental state file " + file.getAbsolutePath() + " (unknown format)");
+                        return state;
+                    }
+                    String line;
+                    Entry entry = null;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("+ ")) {
+                            // + digest template, for the entry above
+                            String[] fields = line.split(" ", 3);
+                            if (entry != null && fields.length == 3) {
+                                entry.resources.put(fields[2], fields[1]);
+                            }
+                            continue;
+                        }
+                        // key length lastModified path
+                        String[] fields = line.split(" ", 4);
+                        if (fields.length == 4) {
+                            entry = new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                    new TreeMap<String, String>());
+                            state.entries.put(fields[3], entry);
+                        } else {
+                            entry = null;
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (Exception e) {
+                state.entries.clear();
+                printWarning("Ignoring unreadable incremental state file " + file.getAbsolutePath() + ": " + e);
+            }
+        }
+        return state;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Returns true if <code>output</code> was generated from inputs with
+     * the given key, and has not been changed or removed since.
+     */
+    public boolean isCurrent(File output, String key) {
+        Entry entry = entries.get(pathOf(output));
+        return entry != null && entry.key.equals(key) &&
+                output.length() == entry.length && output.lastModified() == entry.lastModified;
+    }
+    
+    /**
+     * Returns the digests, by name, of the templates other than the main one
+     * that <code>output</code> was generated from, as recorded by
+     * {@link #update(File, String, Map)}; empty if there were none.
+     */
+    public Map<String, String> getResources(File output) {
+        Entry entry = entries.get(pathOf(output));
+        return entry == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(entry.resources);
+    }
+    
+    /**
+     * Records that <code>output</code>, as it now exists, was generated from
+     * inputs with the given key.
+     */
+    public void update(File output, String key) {
+        update(output, key, Collections.<String, String>emptyMap());
+    }
+    
+    /**
+     * Records that <code>output</code>, as it now exists, was generated from
+     * inputs with the given key and from other templates with the given
+     * digests, by name.
+     */
+    public void update(File output, String key, Map<String, String> resources) {
+        entries.put(pathOf(output), new Entry(key, output.length(), output.lastModified(),
+                new TreeMap<String, String>(resources)));
+    }
+    
+    /**
+     * Saves the state, dropping entries for files that no longer exist.
+     */
+    public void save() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+            try {
+                out.write(HEADER);
+                out.write('\n');
+                for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+                    if (new File(e.getKey()).isFile()) {
+                        Entry entry = e.getValue();
+                        out.write(entry.key + ' ' + entry.length + ' ' + entry.lastModified + ' ' + e.getKey());
+                        out.write('\n');
+                        for (Map.Entry<String, String> resource : entry.resources.entrySet()) {
+                            out.write("+ " + resource.getValue() + ' ' + resource.getKey());
+                            out.write('\n');
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+    
+    private static String pathOf(File output) {
+        return output.getAbsoluteFile().toPath().normalize().toString();
+    }
+    
+    private static class Entry {
+        final String key;
+        final long length;
+        final long lastModified;
+        final Map<String, String> resources;
+        
+        Entry(String key, long length, long lastModified, Map<String, String> resources) {
+            this.key = key;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.resources = resources;
+        }
+    }
+
+}
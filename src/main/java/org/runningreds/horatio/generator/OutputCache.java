@@ -0,0 +1,170 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.generator;
+
+import static org.runningreds.horatio.GenspecUtil.printWarning;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.runningreds.horatio.GenspecException;
+
+/**
+ * Persistent, content-addressed cache of generated files, shared by any
+ * number of runs, workspaces and build machines that can see its directory.
+ * <p>
+ * Each entry holds the content generated for one output key (see
+ * <code>VelocityGenerator</code>), which covers the inputs known before the
+ * template is merged but nothing about where the file is written, together
+ * with the digests of the other templates the merge pulled in. A caller
+ * uses an entry only if those templates are unchanged. Entries are written
+ * whole; a cache hit refreshes the entry's modification time, so the least
+ * recently used entries can be pruned by age, and the directory may be
+ * cleared at any time.
+ */
+public class OutputCache {
+    
+    private static final int MAGIC = 0x48544f43; // "HTOC"
+    // bump whenever the entry format changes
+    private static final int FORMAT_VERSION = 1;
+    
+    private final File dir;
+    
+    public OutputCache(File dir) throws GenspecException {
+        dir.mkdirs();
+        if (!dir.isDirectory()) {
+            throw new GenspecException("Invalid output cache directory " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+    }
+    
+    public File getDirectory() {
+        return dir;
+    }
+    
+    /**
+     * Returns the entry cached for <code>key</code>, or null if there is
+     * none.
+     */
+    public Entry get(String key) {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                Map<String, String> resources = new TreeMap<String, String>();
+                for (int i = 0, n = in.readInt(); i < n; i++) {
+                    String name = in.readUTF();
+                    resources.put(name, in.readUTF());
+                }
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                entry.setLastModified(System.currentTimeMillis());
+                return new Entry(Collections.unmodifiableMap(resources), content);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            printWarning("Ignoring unreadable output cache entry " + entry.getAbsolutePath() + ": " + e);
+            return null;
+        }
+    }
+    
+    /**
+     * Caches <code>content</code> for <code>key</code>, generated from the
+     * other templates with the given digests, by name. Entries are written
+     * whole or not at all, so concurrent runs may store the same key.
+     * Failures are reported as warnings, since the cache is only an
+     * optimization.
+     */
+    public void put(String key, Map<String, String> resources, byte[] content) {
+        File entry = entryFile(key);
+        File tmp = null;
+        try {
+            File subdir = entry.getParentFile();
+            subdir.mkdirs();
+            tmp = File.createTempFile(entry.getName(), ".tmp", subdir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(resources.size());
+                for (Map.Entry<String, String> resource : resources.entrySet()) {
+                    out.writeUTF(resource.getKey());
+                    out.writeUTF(resource.getValue());
+                }
+                out.writeInt(content.length);
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+        } catch (Exception e) {
+            printWarning("Unable to write output cache entry " + entry.getAbsolutePath() + ": " + e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+    
+    // spread entries over subdirectories, as there may be millions
+    private File entryFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + ".out");
+    }
+    
+    /**
+     * Cached content, and the digests of the templates other than the main
+     * one that it was generated from, by name.
+     */
+    public static class Entry {
+        private final Map<String, String> resources;
+        private final byte[] content;
+        
+        Entry(Map<String, String> resources, byte[] content) {
+            this.resources = resources;
+            this.content = content;
+        }
+        
+        public Map<String, String> getResources() {
+            return resources;
+        }
+        
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+}
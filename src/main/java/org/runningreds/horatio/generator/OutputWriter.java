@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.generator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.runningreds.horatio.jfr.Events;
+
+/**
+ * Writes generated files, leaving any file whose content would not change
+ * untouched, so that its modification time is preserved and downstream
+ * builds do not treat it as changed. Keeps counts for the run's report.
+ */
+public class OutputWriter {
+    
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger upToDate = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    
+    /**
+     * Writes <code>content</code> to <code>file</code> unless the file
+     * already holds exactly that content.
+     * @return true if the file was written
+     */
+    public boolean write(File file, byte[] content) throws IOException {
+        Object event = Events.beginOutputWrite();
+        if (hasContent(file, content)) {
+            unchanged.incrementAndGet();
+            if (event != null) {
+                Events.endOutputWrite(event, file.getPath(), content.length, false);
+            }
+            return false;
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        written.incrementAndGet();
+        bytesWritten.addAndGet(content.length);
+        if (event != null) {
+            Events.endOutputWrite(event, file.getPath(), content.length, true);
+        }
+        return true;
+    }
+    
+    /**
+     * Counts a file that was not regenerated at all, as none of its inputs
+     * changed since it was last generated.
+     */
+    public void skipUpToDate() {
+        upToDate.incrementAndGet();
+    }
+    
+    public int getWrittenCount() {
+        return written.get();
+    }
+    
+    public int getUnchangedCount() {
+        return unchanged.get();
+    }
+    
+    public int getUpToDateCount() {
+        return upToDate.get();
+    }
+    
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+    
+    public String getSummary() {
+        String summary = written.get() + " files written, " + unchanged.get() + " unchanged";
+        return upToDate.get() == 0 ? summary : summary + ", " + upToDate.get() + " up to date";
+    }
+    
+    // a straight comparison is cheaper than digesting both sides, and stops
+    // at the first difference
+    private static boolean hasContent(File file, byte[] content) throws IOException {
+        if (!file.isFile() || file.length() != content.length) {
+            return false;
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 
+                Math.max(512, Math.min(content.length, 64 * 1024)));
+        try {
+            for (int i = 0; i < content.length; i++) {
+                if (in.read() != (content[i] & 0xff)) {
+                    return false;
+                }
+            }
+            return in.read() < 0;
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.generator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.event.EventCartridge;
+import org.apache.velocity.app.event.IncludeEventHandler;
+import org.runningreds.horatio.DigestUtil;
+import org.runningreds.horatio.FileRef;
+
+/**
+ * The current content digests of the templates in one template directory
+ * (or URL root), used to check a generated file against every template it
+ * was rendered from: the main template, and any it pulled in with
+ * <code>#parse</code> or <code>#include</code>, as recorded by a
+ * {@link Recorder} while it was merged.
+ * <p>
+ * Each template is read at most once, so an instance should live no longer
+ * than one generator run, after which templates may have changed.
+ */
+class TemplateResources {
+    
+    // the digest of a template that can't be read
+    private static final String MISSING = "-";
+    
+    private final FileRef root;
+    private final ConcurrentHashMap<String, String> digests = new ConcurrentHashMap<String, String>();
+    
+    TemplateResources(FileRef templateRef) {
+        this.root = templateRef.getParentRef();
+    }
+    
+    /**
+     * Returns the digest of template <code>name</code>, relative to the
+     * template directory, or "-" if it does not exist.
+     */
+    String digest(String name) {
+        String digest = digests.get(name);
+        if (digest == null) {
+            try {
+                digest = DigestUtil.digest(root.getChildRef(name).readBytes());
+            } catch (Exception e) {
+                digest = MISSING;
+            }
+            digests.put(name, digest);
+        }
+        return digest;
+    }
+    
+    /**
+     * Returns the digests of the templates <code>names</code>, by name.
+     */
+    Map<String, String> digests(Set<String> names) {
+        if (names.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new TreeMap<String, String>();
+        for (String name : names) {
+            result.put(name, digest(name));
+        }
+        return result;
+    }
+    
+    /**
+     * Returns true if each template in <code>recorded</code> still has the
+     * digest recorded for it.
+     */
+    boolean isCurrent(Map<String, String> recorded) {
+        for (Map.Entry<String, String> entry : recorded.entrySet()) {
+            if (!entry.getValue().equals(digest(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Records the names of the templates pulled in while merging with a
+     * context it is attached to, leaving where they are loaded from
+     * unchanged.
+     */
+    static class Recorder implements IncludeEventHandler {
+        private final Set<String> names = new TreeSet<String>();
+        
+        Recorder attachTo(VelocityContext ctx) {
+            EventCartridge events = new EventCartridge();
+            events.addEventHandler(this);
+            events.attachToContext(ctx);
+            return this;
+        }
+        
+        public String includeEvent(String includeResourcePath, String currentResourcePath, String directiveName) {
+            names.add(includeResourcePath);
+            return includeResourcePath;
+        }
+        
+        Set<String> getNames() {
+            return names;
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.generator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A generator that can check a generator entry before anything is run, so
+ * that genspec errors are reported up front rather than part way through
+ * a run.
+ */
+public interface ValidatingGenerator extends Generator {
+    
+    /**
+     * Checks <code>generatorSpec</code> for errors that would keep it from
+     * generating, without parsing models or loading templates.
+     * @return error messages; empty if none
+     */
+    List<String> validate(Map<String, Object> generatorSpec, String targetName, int generatorIndex);
+
+}
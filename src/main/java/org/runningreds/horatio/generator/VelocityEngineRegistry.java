@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.generator;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.GenerationException;
+import org.runningreds.horatio.Metrics;
+
+/**
+ * Velocity engines shared by all generators, one per template directory
+ * (or URL root), together with the templates they have parsed.
+ * <p>
+ * Engines are created and initialized once, on first use; templates are
+ * parsed once and then served from a lock-free pool. Pooled templates are
+ * still checked for modification at the engine's usual interval, so a
+ * long-lived registry picks up edited templates.
+ */
+public class VelocityEngineRegistry {
+    
+    private final ConcurrentMap<String, Future<VelocityEngine>> engines = new ConcurrentHashMap<String, Future<VelocityEngine>>();
+    private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+    
+    /**
+     * Returns the parsed template referred to by <code>templateRef</code>.
+     * @param encoding the template's character encoding
+     */
+    public Template getTemplate(FileRef templateRef, String encoding) throws GenerationException {
+        String root = rootOf(templateRef);
+        String name = templateRef.getName();
+        String key = root + '|' + name + '|' + encoding;
+        Template template = templates.get(key);
+        if (template == null || template.requiresChecking()) {
+            // the engine's own cache handles the modification check and reload
+            try {
+                VelocityEngine engine = getEngine(root, templateRef.isFile());
+                long start = System.nanoTime();
+                template = engine.getTemplate(name, encoding);
+                Metrics.current().time(Metrics.TEMPLATE_LOAD, start);
+            } catch (GenerationException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new GenerationException("Error loading template " + templateRef, e);
+            }
+            templates.put(key, template);
+        }
+        return template;
+    }
+    
+    public VelocityEngine getEngine(FileRef templateRef) throws GenerationException {
+        return getEngine(rootOf(templateRef), templateRef.isFile());
+    }
+    
+    /**
+     * Returns the template files this registry has loaded, e.g. to watch
+     * them for changes.
+     */
+    public Set<File> getTemplateFiles() {
+        Set<File> files = new HashSet<File>();
+        for (Map.Entry<String, Future<VelocityEngine>> entry : engines.entrySet()) {
+            if (entry.getKey().startsWith("file:")) {
+                String root = entry.getKey().substring(5);
+                String prefix = root + '|';
+                for (String key : templates.keySet()) {
+                    if (key.startsWith(prefix)) {
+                        files.add(new File(root, key.substring(prefix.length(), key.lastIndexOf('|'))));
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableSet(files);
+    }
+
+    /**
+     * Discards the engine and templates for the directory of
+     * <code>templateFile</code>, so its next use sees the file as it is now
+     * rather than waiting out the engine's modification check interval.
+     */
+    public void invalidate(File templateFile) {
+        String root = templateFile.getAbsoluteFile().getParentFile().getAbsolutePath();
+        engines.remove("file:" + root);
+        String prefix = root + '|';
+        for (String key : templates.keySet()) {
+            if (key.startsWith(prefix)) {
+                templates.remove(key);
+            }
+        }
+    }
+    
+    public void clear() {
+        engines.clear();
+        templates.clear();
+    }
+
+    private VelocityEngine getEngine(final String root, final boolean isFile) throws GenerationException {
+        String key = (isFile ? "file:" : "url:") + root;
+        Future<VelocityEngine> future = engines.get(key);
+        if (future == null) {
+            FutureTask<VelocityEngine> task = new FutureTask<VelocityEngine>(new Callable<VelocityEngine>() {
+                public VelocityEngine call() throws Exception {
+                    return createEngine(root, isFile);
+                }
+            });
+            if ((future = engines.putIfAbsent(key, task)) == null) {
+                future = task;
+                task.run();
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenerationException("Interrupted waiting for Velocity engine for " + root, e);
+        } catch (ExecutionException e) {
+            engines.remove(key, future);
+            throw new GenerationException("Error initializing Velocity engine for " + root, e.getCause());
+        }
+    }
+    
+    private static VelocityEngine createEngine(String root, boolean isFile) throws Exception {
+        long start = System.nanoTime();
+        VelocityEngine ve = new VelocityEngine();
+        Properties props = new Properties();
+        if (isFile) {
+            props.put("resource.loader", "file");
+            props.put("file.resource.loader.class", "org.apache.velocity.runtime.resource.loader.FileResourceLoader");
+            props.put("file.resource.loader.path", root);
+            props.put("file.resource.loader.cache", "true");
+        } else {
+            props.put("resource.loader", "url");
+            props.put("url.resource.loader.class", "org.apache.velocity.runtime.resource.loader.URLResourceLoader");
+            props.put("url.resource.loader.root", root);
+            props.put("url.resource.loader.cache", "true");
+        }
+        // the engine is shared by every template in the directory, so keep
+        // each template's inline macros to itself, as when each generator
+        // had an engine of its own
+        props.put("velocimacro.permissions.allow.inline.local.scope", "true");
+        props.put("velocimacro.permissions.allow.inline.to.replace.global", "false");
+        ve.init(props);
+        Metrics.current().time(Metrics.ENGINE_INIT, start);
+        return ve;
+    }
+    
+    private static String rootOf(FileRef templateRef) {
+        if (templateRef.isFile()) {
+            return templateRef.getFile().getAbsoluteFile().getParentFile().getAbsolutePath();
+        }
+        String url = templateRef.getUrl().toString();
+        return url.substring(0, url.lastIndexOf('/'));
+    }
+
+}
@@ -16,31 +16,50 @@
 
 package org.runningreds.horatio.generator;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
+import org.runningreds.horatio.DigestUtil;
 import org.runningreds.horatio.FileRef;
 import org.runningreds.horatio.GenerationException;
+import org.runningreds.horatio.Metrics;
+import org.runningreds.horatio.RunContext;
+import org.runningreds.horatio.jfr.Events;
+import org.runningreds.horatio.model.DependencyGraph;
 import org.runningreds.horatio.model.EnumType;
 import org.runningreds.horatio.model.NamespaceDef;
 import org.runningreds.horatio.model.ServiceDef;
 import org.runningreds.horatio.model.StructType;
 import org.runningreds.horatio.model.ThriftModel;
-import org.runningreds.horatio.parser.Parsers;
+import org.runningreds.horatio.model.Type;
 
 import static org.runningreds.horatio.Horatio.*;
 import static org.runningreds.horatio.GenspecUtil.*;
 
-public class VelocityGenerator implements Generator {
+public class VelocityGenerator implements ValidatingGenerator {
+    
+    // bump whenever a change here alters the output for the same inputs
+    private static final String OUTPUT_KEY_VERSION = "2";
+    
+    private static final String VM_LIBRARY = "VM_global_library.vm";
+    
+    private static final List<String> ITERATE_TYPES = Arrays.asList("none", "struct", "union", "enum", "service");
     
     static void p(Object o) {
         System.out.println(o);
@@ -50,7 +69,39 @@ public class VelocityGenerator implements Generator {
         return "Standard Velocity Template-Based Generator";
     }
     
-    public void generate(Map<String, Object> genspec, String target, int genIndex) throws GenerationException {
+    public List<String> validate(Map<String, Object> genspec, String target, int genIndex) {
+        List<String> errors = new ArrayList<String>(0);
+        Map<String, Object> opts = getMap(SECTION_OPTIONS, genspec);
+        FileRef templateRef = getFileRef(getString(OPT_BASE_INPUT_DIR, opts),
+                getString(OPT_INPUT_DIR, opts), getString(OPT_TEMPLATE, genspec));
+        if (templateRef.isFile() && !templateRef.getFile().isFile()) {
+            errors.add("Template " + templateRef + " not found for target " + getTargetGenId(target, genIndex));
+        }
+        String iterate = getString(OPT_ITERATE, genspec, "none");
+        if (!ITERATE_TYPES.contains(iterate)) {
+            errors.add("Invalid iterate type " + iterate + " for target " + getTargetGenId(target, genIndex));
+        }
+        String charsetName = getString(OPT_CHARSET, opts, "UTF8");
+        boolean supported;
+        try {
+            supported = Charset.isSupported(charsetName);
+        } catch (IllegalArgumentException e) {
+            supported = false;
+        }
+        if (!supported) {
+            errors.add("Invalid output charset " + charsetName + " for target " + getTargetGenId(target, genIndex));
+        }
+        for (Object className : getMap(SECTION_HELPERS, genspec).values()) {
+            try {
+                Class.forName((String)className);
+            } catch (Exception e) {
+                errors.add("Error loading helper class " + className + " for target " + getTargetGenId(target, genIndex));
+            }
+        }
+        return errors;
+    }
+    
+    public void generate(RunContext context, Map<String, Object> genspec, String target, int genIndex) throws GenerationException {
         Map<String, Object> opts = getMap(SECTION_OPTIONS, genspec);
         FileRef modelRef = getFileRef(null, null, getString(OPT_MODEL_FILE, opts));
         if (modelRef.isEmpty()) {
@@ -65,13 +116,9 @@ public class VelocityGenerator implements Generator {
         }
         ThriftModel model;
         try {
-            if (modelRef.isFile()) {
-                model = Parsers.parseThrift(modelRef.getFile());
-            } else {
-                model = Parsers.parseThrift(modelRef.getUrl());
-            }
+            model = context.getModelCache().getModel(modelRef);
         } catch (Exception e) {
-            e.printStackTrace();
+            printStackTrace(e);
             printError("Error parsing Thrift model for target " + getTargetGenId(target, genIndex));
             return;
         }
@@ -83,28 +130,6 @@ public class VelocityGenerator implements Generator {
             return;
         }
         
-        VelocityEngine ve = new VelocityEngine();
-        String templateName;
-        if (templateRef.isFile()) {
-            File file = templateRef.getFile();
-            templateName = file.getName();
-            Properties props = new Properties();
-            props.put("resource.loader", "file");
-            props.put("file.resource.loader.class", "org.apache.velocity.runtime.resource.loader.FileResourceLoader");
-            props.put("file.resource.loader.path", file.getParentFile().getAbsolutePath());
-            props.put("file.resource.loader.cache", "true");
-            ve.init(props);
-        } else {
-            String url = templateRef.getUrl().toString();
-            templateName = url.substring(url.lastIndexOf('/') + 1);
-            Properties props = new Properties();
-            props.put("resource.loader", "url");
-            props.put("url.resource.loader.class", "org.apache.velocity.runtime.resource.loader.URLResourceLoader");
-            props.put("url.resource.loader.root", url.substring(0, url.lastIndexOf('/')));
-            props.put("url.resource.loader.cache", "true");
-            ve.init(props);
-        }
-        
         String charsetName = getString(OPT_CHARSET, opts, "UTF8");
         Charset charset = Charset.forName(charsetName);
         
@@ -118,8 +143,78 @@ public class VelocityGenerator implements Generator {
             filenameExtension = filenameExtension.substring(1);
         }
         
-        HashMap<String, Object> helpers = new HashMap<String, Object>();
         Map<String, Object> helperClasses = getMap(SECTION_HELPERS, genspec);
+        Map<String, Object> params = getMap(SECTION_PARAMS, genspec);
+        
+        String iterate = getString(OPT_ITERATE, genspec, "none");
+        
+        List<OutputFile> outputs = new ArrayList<OutputFile>();
+        if ("struct".equals(iterate) || "union".equals(iterate)) {
+            boolean unions = "union".equals(iterate);
+            for (StructType struct : model.getStructs().values()) {
+                if (struct.isUnion() != unions) {
+                    continue;
+                }
+                String baseName = baseName(util, struct.getName(), filenameCase, filenamePrefix, filenameSuffix);
+                outputs.add(new OutputFile(iterate, struct, baseName, baseName + '.' + filenameExtension));
+            }
+        } else if ("enum".equals(iterate)) {
+            for (EnumType etype : model.getEnums().values()) {
+                String baseName = baseName(util, etype.getName(), filenameCase, filenamePrefix, filenameSuffix);
+                outputs.add(new OutputFile(iterate, etype, baseName, baseName + '.' + filenameExtension));
+            }
+        } else if ("service".equals(iterate)) {
+            for (ServiceDef service : model.getServices().values()) {
+                String baseName = baseName(util, service.getName(), filenameCase, filenamePrefix, filenameSuffix);
+                outputs.add(new OutputFile(iterate, service, baseName, baseName + '.' + filenameExtension));
+            }
+        } else if ("none".equals(iterate)){
+            if (filename == null) {
+                printWarning("No filename specified for iterate:none for target " + getTargetGenId(target, genIndex));
+            } else {
+                int extidx = filename.lastIndexOf('.');
+                String baseName = extidx > 0 ? filename.substring(0, extidx) : filename;
+                outputs.add(new OutputFile(null, null, baseName, filename));
+            }
+        } else {
+            printWarning("Invalid iterate type " + iterate + " for target  " + getTargetGenId(target, genIndex));
+        }
+        
+        IncrementalState state = context.getIncrementalState();
+        if (state != null && !getBoolean(OPT_INCREMENTAL, opts, true)) {
+            state = null;
+        }
+        OutputCache cache = context.getOutputCache();
+        // only for generators that ask, as the key can't cover everything a
+        // template might read (e.g. through $model)
+        if (cache != null && !getBoolean(OPT_OUTPUT_CACHE, opts, false)) {
+            cache = null;
+        }
+        TemplateResources resources = new TemplateResources(templateRef);
+        if ((state != null || cache != null) && !outputs.isEmpty() && setOutputKeys(context, model, templateRef,
+                resources, charsetName, helperClasses, params, outputs, target, genIndex)) {
+            if (state != null) {
+                outputs = removeUpToDate(context, state, resources, outputDir, outputs);
+            }
+            if (cache != null) {
+                outputs = writeCached(context, state, cache, resources, outputDir, outputs, target, genIndex);
+            }
+        }
+        if (outputs.isEmpty()) {
+            // everything is up to date or cached; don't load the template
+            return;
+        }
+        
+        Template template;
+        try {
+            template = context.getVelocityEngines().getTemplate(templateRef, charsetName);
+        } catch (Exception e) {
+            printStackTrace(e);
+            printError("Error loading template " + templateRef + " for target " + getTargetGenId(target, genIndex));
+            return;
+        }
+        
+        HashMap<String, Object> helpers = new HashMap<String, Object>();
         for (Map.Entry<String,Object> entry : helperClasses.entrySet()) {
             try {
                 helpers.put(entry.getKey(), Class.forName((String)entry.getValue()).newInstance());
@@ -127,158 +222,290 @@ public class VelocityGenerator implements Generator {
                 printWarning("Error loading helper class " + entry.getValue() + " for target " + getTargetGenId(target, genIndex));
             }
         }
-        HashMap<String, Object> params = getMap(SECTION_PARAMS, genspec);
-        
-        String iterate = getString(OPT_ITERATE, genspec, "none");
         
         VelocityContext ctx = new VelocityContext();
         ctx.put("model", model);
         ctx.put("helpers", helpers.clone());
-        ctx.put("params", params.clone());
-       
         
-        if ("struct".equals(iterate)) {
-            for (StructType struct : model.getStructs().values()) {
-                if (struct.isUnion()) {
-                    continue;
-                }
-                ctx.put("struct", struct);
-                String structName = struct.getName();
-                String baseName;
-                if ("underscore_case".equals(filenameCase)) {
-                    baseName= filenamePrefix + util.decamel(structName) + filenameSuffix;
-                } else {
-                    baseName = filenamePrefix + util.ucamel(structName) + filenameSuffix;
-                }
-                filename = baseName + '.' + filenameExtension;
-                ctx.put("filename", filename);
-                ctx.put("base_name", baseName);
-                File outputFile = new File(outputDir, filename);
-                Writer writer;
+        int renderParallelism = getInt(OPT_RENDER_PARALLELISM, opts, 1);
+        if (renderParallelism > 1 && outputs.size() > 1) {
+            renderParallel(template, resources, context, state, cache, charset, ctx, params, outputDir, outputs,
+                    Math.min(renderParallelism, outputs.size()), target, genIndex);
+        } else {
+            StringWriter writer = new StringWriter(4096);
+            for (OutputFile output : outputs) {
+                // like the parallel renderers, each file gets a child context
+                // of its own, so nothing a template #sets carries into the next
+                VelocityContext fileCtx = new VelocityContext(ctx);
+                output.putInto(fileCtx, params);
+                File outputFile = new File(outputDir, output.filename);
                 try {
-                    FileOutputStream out = new FileOutputStream(outputFile);
-                    writer = new BufferedWriter(new OutputStreamWriter(out, charset));
-                    ve.mergeTemplate(templateName, charsetName, ctx, writer);
-                    writer.flush();
-                    writer.close();
+                    writer.getBuffer().setLength(0);
+                    merge(context, template, resources, fileCtx, output, writer, target, genIndex);
+                    writeOutput(context, state, cache, output, outputFile, writer.toString().getBytes(charset));
                 } catch (Exception e) {
-                    e.printStackTrace();
-                    printError("Error creating struct output file " + outputFile.getAbsolutePath() +
-                            " for target " + getTargetGenId(target, genIndex));
+                    printStackTrace(e);
+                    printOutputError(output, outputFile, target, genIndex);
                 }
             }
-        } else if ("union".equals(iterate)) {
-            for (StructType struct : model.getStructs().values()) {
-                if (!struct.isUnion()) {
-                    continue;
-                }
-                ctx.put("union", struct);
-                String structName = struct.getName();
-                String baseName;
-                if ("underscore_case".equals(filenameCase)) {
-                    baseName= filenamePrefix + util.decamel(structName) + filenameSuffix;
-                } else {
-                    baseName = filenamePrefix + util.ucamel(structName) + filenameSuffix;
+        }
+    }
+    
+    /**
+     * Renders up to <code>threads</code> output files at a time on the run's
+     * render pool, each with its own child context over the shared base
+     * context (and model), while this thread writes the results. A file is
+     * only handed to the pool once a rendered one has been taken for
+     * writing, so at most <code>threads</code> rendered files wait to be
+     * written, and renderers never block.
+     * <p>
+     * Helper objects are shared by all renderers, and so must be thread-safe.
+     */
+    private void renderParallel(final Template template, final TemplateResources resources, final RunContext context,
+            IncrementalState state, OutputCache cache,
+            Charset charset, final VelocityContext baseCtx, final Map<String, Object> params, File outputDir,
+            List<OutputFile> outputs, int threads, final String target, final int genIndex) {
+        final BlockingQueue<Rendered> written = new LinkedBlockingQueue<Rendered>();
+        ExecutorService renderers = context.getRenderPool();
+        Iterator<OutputFile> pending = outputs.iterator();
+        try {
+            int rendering = 0;
+            for (int remaining = outputs.size(); remaining > 0; remaining--) {
+                for (; rendering < threads && pending.hasNext(); rendering++) {
+                    final OutputFile output = pending.next();
+                    renderers.execute(new Runnable() {
+                        public void run() {
+                            Rendered rendered = new Rendered(output);
+                            try {
+                                VelocityContext ctx = new VelocityContext(baseCtx);
+                                output.putInto(ctx, params);
+                                StringWriter writer = new StringWriter(4096);
+                                merge(context, template, resources, ctx, output, writer, target, genIndex);
+                                rendered.content = writer.toString();
+                            } catch (Throwable t) {
+                                rendered.error = t;
+                            }
+                            written.add(rendered);
+                        }
+                    });
                 }
-                filename = baseName + '.' + filenameExtension;
-                ctx.put("filename", filename);
-                ctx.put("base_name", baseName);
-                File outputFile = new File(outputDir, filename);
-                Writer writer;
+                Rendered rendered = written.take();
+                rendering--;
+                File outputFile = new File(outputDir, rendered.output.filename);
                 try {
-                    FileOutputStream out = new FileOutputStream(outputFile);
-                    writer = new BufferedWriter(new OutputStreamWriter(out, charset));
-                    ve.mergeTemplate(templateName, charsetName, ctx, writer);
-                    writer.flush();
-                    writer.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    printError("Error creating union output file " + outputFile.getAbsolutePath() +
-                            " for target " + getTargetGenId(target, genIndex));
+                    if (rendered.error != null) {
+                        throw rendered.error;
+                    }
+                    writeOutput(context, state, cache, rendered.output, outputFile, rendered.content.getBytes(charset));
+                } catch (Throwable t) {
+                    printStackTrace(t);
+                    printOutputError(rendered.output, outputFile, target, genIndex);
                 }
             }
-        } else if ("enum".equals(iterate)) {
-            for (EnumType etype : model.getEnums().values()) {
-                ctx.put("enum", etype);
-                String enumName = etype.getName();
-                String baseName;
-                if ("underscore_case".equals(filenameCase)) {
-                    baseName= filenamePrefix + util.decamel(enumName) + filenameSuffix;
-                } else {
-                    baseName = filenamePrefix + util.ucamel(enumName) + filenameSuffix;
-                }
-                filename = baseName + '.' + filenameExtension;
-                ctx.put("filename", filename);
-                ctx.put("base_name", baseName);
-                File outputFile = new File(outputDir, filename);
-                Writer writer;
-                try {
-                    FileOutputStream out = new FileOutputStream(outputFile);
-                    writer = new BufferedWriter(new OutputStreamWriter(out, charset));
-                    ve.mergeTemplate(templateName, charsetName, ctx, writer);
-                    writer.flush();
-                    writer.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    printError("Error creating enum output file " + outputFile.getAbsolutePath() +
-                            " for target " + getTargetGenId(target, genIndex));
-                }
+        } catch (InterruptedException e) {
+            // files already handed to the pool finish rendering, but are not written
+            Thread.currentThread().interrupt();
+            throw new GenerationException("Interrupted rendering target " + getTargetGenId(target, genIndex), e);
+        }
+    }
+    
+    /**
+     * Merges <code>template</code> for <code>output</code>, recording the
+     * other templates it pulls in if the output has a key.
+     */
+    private static void merge(RunContext context, Template template, TemplateResources resources,
+            VelocityContext ctx, OutputFile output, Writer writer, String target, int genIndex) {
+        TemplateResources.Recorder recorder = null;
+        if (output.key != null) {
+            recorder = new TemplateResources.Recorder().attachTo(ctx);
+        }
+        long start = System.nanoTime();
+        Object event = Events.beginTemplateMerge();
+        template.merge(ctx, writer);
+        context.getMetrics().time(Metrics.TEMPLATE_MERGE, start);
+        if (event != null) {
+            Events.endTemplateMerge(event, target, genIndex, template.getName(), output.filename);
+        }
+        if (recorder != null) {
+            output.resources = resources.digests(recorder.getNames());
+        }
+    }
+    
+    /**
+     * Writes a rendered output file, recording it in <code>state</code> and
+     * <code>cache</code> unless they are null or the file has no key.
+     */
+    private static void writeOutput(RunContext context, IncrementalState state, OutputCache cache,
+            OutputFile output, File outputFile, byte[] content) throws IOException {
+        long start = System.nanoTime();
+        context.getOutputWriter().write(outputFile, content);
+        context.getMetrics().time(Metrics.FILE_WRITE, start);
+        if (output.key != null) {
+            if (state != null) {
+                state.update(outputFile, output.key, output.resources);
             }
-            
-        } else if ("service".equals(iterate)) {
-            for (ServiceDef service : model.getServices().values()) {
-                ctx.put("service", service);
-                String serviceName = service.getName();
-                String baseName;
-                if ("underscore_case".equals(filenameCase)) {
-                    baseName= filenamePrefix + util.decamel(serviceName) + filenameSuffix;
-                } else {
-                    baseName = filenamePrefix + util.ucamel(serviceName) + filenameSuffix;
-                }
-                filename = baseName + '.' + filenameExtension;
-                ctx.put("filename", filename);
-                ctx.put("base_name", baseName);
-                File outputFile = new File(outputDir, filename);
-                Writer writer;
-                try {
-                    FileOutputStream out = new FileOutputStream(outputFile);
-                    writer = new BufferedWriter(new OutputStreamWriter(out, charset));
-                    ve.mergeTemplate(templateName, charsetName, ctx, writer);
-                    writer.flush();
-                    writer.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    printError("Error creating service output file " + outputFile.getAbsolutePath() +
-                            " for target " + getTargetGenId(target, genIndex));
-                }
+            if (cache != null) {
+                cache.put(output.key, output.resources, content);
+                context.getMetrics().count(Metrics.OUTPUTS_STORED, 1);
             }
-        } else if ("none".equals(iterate)){
-            if (filename == null) {
-                printWarning("No filename specified for iterate:none for target " + getTargetGenId(target, genIndex));
+        }
+    }
+    
+    /**
+     * Writes the outputs whose content is in <code>cache</code>, generated
+     * from the templates as they are now, without rendering them, and
+     * returns those that are not.
+     */
+    private static List<OutputFile> writeCached(RunContext context, IncrementalState state, OutputCache cache,
+            TemplateResources resources, File outputDir, List<OutputFile> outputs, String target, int genIndex) {
+        List<OutputFile> uncached = new ArrayList<OutputFile>(outputs.size());
+        for (OutputFile output : outputs) {
+            OutputCache.Entry entry = output.key == null ? null : cache.get(output.key);
+            if (entry == null || !resources.isCurrent(entry.getResources())) {
+                uncached.add(output);
+                continue;
+            }
+            context.getMetrics().count(Metrics.OUTPUTS_CACHED, 1);
+            output.resources = entry.getResources();
+            File outputFile = new File(outputDir, output.filename);
+            try {
+                // already cached, so only the state is updated
+                writeOutput(context, state, null, output, outputFile, entry.getContent());
+            } catch (Exception e) {
+                printStackTrace(e);
+                printOutputError(output, outputFile, target, genIndex);
+            }
+        }
+        return uncached;
+    }
+    
+    /**
+     * Sets the key of each output, which identifies its content: it covers
+     * the template, charset, params and helper classes, the file name, and
+     * the fingerprint of the struct, union, enum or service it is generated
+     * from and the definitions that one depends on, or of the whole model
+     * (and its includes) for iterate:none. It does not depend on where the
+     * file is written. It does not cover the templates the template pulls
+     * in with #parse or #include, which are only known once it has been
+     * merged; those are recorded with each output's resources.
+     * @return false if the keys could not be computed
+     */
+    private static boolean setOutputKeys(RunContext context, ThriftModel model,
+            FileRef templateRef, TemplateResources resources, String charsetName, Map<String, Object> helperClasses, Map<String, Object> params,
+            List<OutputFile> outputs, String target, int genIndex) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(OUTPUT_KEY_VERSION).append('\n');
+        try {
+            sb.append(DigestUtil.digest(templateRef.readBytes())).append('\n');
+        } catch (Exception e) {
+            printWarning("Error reading template " + templateRef + " for target " + getTargetGenId(target, genIndex) +
+                    " -- regenerating all files: " + e);
+            return false;
+        }
+        // loaded by the engine, if present, and available to every template
+        sb.append(resources.digest(VM_LIBRARY)).append('\n');
+        sb.append(charsetName).append('\n');
+        sb.append(DigestUtil.digestValue(params)).append('\n');
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(helperClasses).entrySet()) {
+            String className = String.valueOf(entry.getValue());
+            sb.append(entry.getKey()).append(' ').append(className).append(' ')
+                .append(DigestUtil.digestClass(className)).append('\n');
+        }
+        String settings = sb.toString();
+        
+        DependencyGraph graph = context.getDependencyGraph(model.getModelSet());
+        for (OutputFile output : outputs) {
+            String fingerprint;
+            if (output.item instanceof Type) {
+                fingerprint = graph.getFingerprint(((Type)output.item).getQName());
+            } else if (output.item instanceof ServiceDef) {
+                fingerprint = graph.getFingerprint(((ServiceDef)output.item).getQName());
             } else {
-                int extidx = filename.lastIndexOf('.');
-                String baseName = extidx > 0 ? filename.substring(0, extidx) : filename;
-                ctx.put("filename", filename);
-                ctx.put("base_name", baseName);
-                File outputFile = new File(outputDir, filename);
-                Writer writer;
-                try {
-                    FileOutputStream out = new FileOutputStream(outputFile);
-                    writer = new BufferedWriter(new OutputStreamWriter(out, charset));
-                    ve.mergeTemplate(templateName, charsetName, ctx, writer);
-                    writer.flush();
-                    writer.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    printError("Error creating output file " + outputFile.getAbsolutePath() +
-                            " for target " + getTargetGenId(target, genIndex));
-                }
+                fingerprint = graph.getModelFingerprint(model.getName());
+            }
+            output.key = DigestUtil.digest(settings + output.filename + '\n' + output.baseName + '\n' + fingerprint);
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the outputs that need to be generated, skipping those whose
+     * key, and the templates they pulled in, are unchanged since they were
+     * last generated.
+     */
+    private static List<OutputFile> removeUpToDate(RunContext context, IncrementalState state,
+            TemplateResources resources, File outputDir, List<OutputFile> outputs) {
+        List<OutputFile> stale = new ArrayList<OutputFile>(outputs.size());
+        for (OutputFile output : outputs) {
+            File outputFile = new File(outputDir, output.filename);
+            if (output.key != null && state.isCurrent(outputFile, output.key) &&
+                    resources.isCurrent(state.getResources(outputFile))) {
+                context.getOutputWriter().skipUpToDate();
+            } else {
+                stale.add(output);
             }
+        }
+        return stale;
+    }
+    
+    private static void printOutputError(OutputFile output, File outputFile, String target, int genIndex) {
+        printError("Error creating " + (output.kind == null ? "" : output.kind + " ") +
+                "output file " + outputFile.getAbsolutePath() +
+                " for target " + getTargetGenId(target, genIndex));
+    }
+    
+    private static String baseName(GenUtil util, String name, String filenameCase, String prefix, String suffix) {
+        if ("underscore_case".equals(filenameCase)) {
+            return prefix + util.decamel(name) + suffix;
         } else {
-            printWarning("Invalid iterate type " + iterate + " for target  " + getTargetGenId(target, genIndex));
+            return prefix + util.ucamel(name) + suffix;
+        }
+    }
+    
+    /**
+     * An output file to be generated, and the struct, union, enum or service
+     * (if any) it is generated from.
+     */
+    private static class OutputFile {
+        final String kind;
+        final Object item;
+        final String baseName;
+        final String filename;
+        // key of the inputs this file is generated from, if incremental or cached
+        String key;
+        // digests of the templates the template pulled in, by name
+        Map<String, String> resources = Collections.emptyMap();
+        
+        OutputFile(String kind, Object item, String baseName, String filename) {
+            this.kind = kind;
+            this.item = item;
+            this.baseName = baseName;
+            this.filename = filename;
+        }
+        
+        void putInto(VelocityContext ctx, Map<String, Object> params) {
+            // templates get a copy of their own to change, so one file's
+            // changes are not seen by the next
+            ctx.put("params", new HashMap<String, Object>(params));
+            if (item != null) {
+                ctx.put(kind, item);
+            }
+            ctx.put("filename", filename);
+            ctx.put("base_name", baseName);
         }
     }
     
+    private static class Rendered {
+        final OutputFile output;
+        String content;
+        Throwable error;
+        
+        Rendered(OutputFile output) {
+            this.output = output;
+        }
+    }
+    
+    
 
     private static File getOutputDir(Map<String, Object> opts, ThriftModel model) {
         StringBuilder sb = new StringBuilder(128);
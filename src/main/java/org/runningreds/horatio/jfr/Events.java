@@ -0,0 +1,157 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.jfr;
+
+/**
+ * Emits Java Flight Recorder events for Horatio's hot paths, on JVMs that
+ * have JFR; elsewhere every method is a no-op and no event class is loaded.
+ * <p>
+ * Duration events are begun by a <code>begin...</code> method, which
+ * returns null when the event is not being recorded, and committed by the
+ * matching <code>end...</code> method, which should only be called for a
+ * non-null event, so that callers do no work to fill in event fields that
+ * will not be recorded. Setting system property <code>horatio.jfr</code>
+ * to <code>false</code> disables all events.
+ */
+public final class Events {
+    private Events() {}
+    
+    public static final boolean AVAILABLE = isAvailable();
+    
+    private static boolean isAvailable() {
+        if ("false".equalsIgnoreCase(System.getProperty("horatio.jfr"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+    
+    public static Object beginParse() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        ParseEvent event = new ParseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+    
+    public static void endParse(Object parseEvent, String model, Object source) {
+        ParseEvent event = (ParseEvent)parseEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.model = model;
+            event.source = String.valueOf(source);
+            event.commit();
+        }
+    }
+    
+    public static Object beginInclude() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        IncludeEvent event = new IncludeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+    
+    public static void endInclude(Object includeEvent, String model, Iterable<String> includes, int loaded) {
+        IncludeEvent event = (IncludeEvent)includeEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            StringBuilder sb = new StringBuilder();
+            for (String include : includes) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(include);
+            }
+            event.model = model;
+            event.includes = sb.toString();
+            event.loaded = loaded;
+            event.commit();
+        }
+    }
+    
+    public static void typeRegistered(String type) {
+        if (AVAILABLE) {
+            TypeRegistrationEvent event = new TypeRegistrationEvent();
+            if (event.shouldCommit()) {
+                event.type = type;
+                event.commit();
+            }
+        }
+    }
+    
+    public static Object beginTemplateMerge() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        TemplateMergeEvent event = new TemplateMergeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+    
+    public static void endTemplateMerge(Object mergeEvent, String target, int generator, String template, String output) {
+        TemplateMergeEvent event = (TemplateMergeEvent)mergeEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = target;
+            event.generator = generator;
+            event.template = template;
+            event.output = output;
+            event.commit();
+        }
+    }
+    
+    public static Object beginOutputWrite() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        OutputWriteEvent event = new OutputWriteEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+    
+    public static void endOutputWrite(Object writeEvent, String path, long size, boolean written) {
+        OutputWriteEvent event = (OutputWriteEvent)writeEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.size = size;
+            event.written = written;
+            event.commit();
+        }
+    }
+
+}
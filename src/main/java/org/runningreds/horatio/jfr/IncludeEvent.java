@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Fetching (and parsing) the models included by one model.
+ */
+@Name("org.runningreds.horatio.IncludeFetch")
+@Label("Include Fetch")
+@Category({"Horatio", "Parser"})
+@Description("Wait for the models included by a model to be fetched and parsed")
+class IncludeEvent extends jdk.jfr.Event {
+    @Label("Model")
+    String model;
+    
+    @Label("Includes")
+    String includes;
+    
+    @Label("Loaded")
+    @Description("Number of includes loaded by this fetch, rather than already loaded or being loaded for another model")
+    int loaded;
+}
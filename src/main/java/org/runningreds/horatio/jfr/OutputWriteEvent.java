@@ -0,0 +1,44 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The write of one generated file, or the comparison that found it
+ * unchanged.
+ */
+@Name("org.runningreds.horatio.OutputWrite")
+@Label("Output Write")
+@Category({"Horatio", "Generator"})
+@StackTrace(false)
+class OutputWriteEvent extends jdk.jfr.Event {
+    @Label("Path")
+    String path;
+    
+    @Label("Size")
+    @DataAmount
+    long size;
+    
+    @Label("Written")
+    boolean written;
+}
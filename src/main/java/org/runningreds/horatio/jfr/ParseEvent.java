@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The parse of one Thrift IDL file.
+ */
+@Name("org.runningreds.horatio.Parse")
+@Label("Thrift Parse")
+@Category({"Horatio", "Parser"})
+@Description("Parse of one Thrift IDL file, including the wait for its includes")
+class ParseEvent extends jdk.jfr.Event {
+    @Label("Model")
+    String model;
+    
+    @Label("Source")
+    String source;
+}
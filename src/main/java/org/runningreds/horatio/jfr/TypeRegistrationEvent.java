@@ -0,0 +1,38 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Registration of a type in a model set. Types are registered often enough
+ * that the event is disabled unless a recording's settings enable it.
+ */
+@Name("org.runningreds.horatio.TypeRegistration")
+@Label("Type Registration")
+@Category({"Horatio", "Model"})
+@Enabled(false)
+@StackTrace(false)
+class TypeRegistrationEvent extends jdk.jfr.Event {
+    @Label("Type")
+    String type;
+}
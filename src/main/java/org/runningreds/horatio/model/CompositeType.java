@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.List;
 
 public abstract class CompositeType extends Type {
+    private static final long serialVersionUID = 1L;
 
     protected final List<Type> elemTypes;
     
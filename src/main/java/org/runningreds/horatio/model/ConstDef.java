@@ -16,16 +16,16 @@
 
 package org.runningreds.horatio.model;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ConstDef extends ModelComponent {
+    private static final long serialVersionUID = 1L;
     final String name;
     final Type type;
     final Object value;
-    private final Map<String, Object> annotations = Collections.synchronizedMap(new HashMap<String,Object>(2,2));
+    // shared while empty; replaced by an unmodifiable copy when sealed
+    private Map<String, Object> annotations = ThriftModel.NO_ANNOTATIONS;
     private final List<String> docComments;
     
     public ConstDef(ThriftModel schema, String name, Type type, Object value, List<String> docComments) throws ModelException {
@@ -41,6 +41,10 @@ public class ConstDef extends ModelComponent {
         this(schema, name, type, value, (List<String>)null);
     }
     
+    void seal() {
+        annotations = ThriftModel.freeze(annotations);
+    }
+    
     @Override
     public String getQName() {
         return schema.qname(name);
@@ -66,8 +70,8 @@ public class ConstDef extends ModelComponent {
         return null;
     }
 
-    public void addAnnotation(String name, Object value) {
-        annotations.put(name, value);
+    public synchronized void addAnnotation(String name, Object value) {
+        annotations = ThriftModel.annotate(annotations, name, value);
     }
     
     public boolean hasAnnotations() {
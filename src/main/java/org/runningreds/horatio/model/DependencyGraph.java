@@ -0,0 +1,385 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.runningreds.horatio.DigestUtil;
+
+/**
+ * The dependencies among the definitions (structs, unions, exceptions, enums,
+ * consts and services) of a {@link ModelSet}, keyed by qualified name, and a
+ * content fingerprint of each definition.
+ * <p>
+ * A definition depends on every named type it references, through fields,
+ * function arguments, return types, throws clauses and const values, and on
+ * its super service, if any. Typedefs are resolved by the parser, so a
+ * reference through a typedef is a reference to the aliased type. Models
+ * depend on the models they include.
+ * <p>
+ * The graph is built once, from a fully parsed model set; it does not see
+ * later changes to the models.
+ */
+public class DependencyGraph {
+    
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    private final Map<String, List<String>> modelDefinitions = new HashMap<String, List<String>>();
+    private final Map<String, List<String>> modelIncludes = new HashMap<String, List<String>>();
+    private final Map<String, String> headerFingerprints = new HashMap<String, String>();
+    
+    private final ConcurrentHashMap<String, String> closureFingerprints = new ConcurrentHashMap<String, String>();
+    
+    public DependencyGraph(ModelSet modelSet) {
+        for (ThriftModel model : modelSet.getLoadedModels()) {
+            List<String> names = new ArrayList<String>();
+            for (ConstDef def : model.getConsts().values()) {
+                names.add(addConst(def));
+            }
+            for (EnumType def : model.getEnums().values()) {
+                names.add(addEnum(def));
+            }
+            for (StructType def : model.getStructs().values()) {
+                names.add(addFields(def.getQName(), def.isUnion() ? "union" : "struct",
+                        def.getFields(), def.getAnnotations(), def.getDocComments(), null));
+            }
+            for (ExceptionType def : model.getExceptions().values()) {
+                Type base = def.getBase() == def ? null : def.getBase();
+                names.add(addFields(def.getQName(), "exception",
+                        def.getFields(), def.getAnnotations(), def.getDocComments(), base));
+            }
+            for (ServiceDef def : model.getServices().values()) {
+                names.add(addService(def));
+            }
+            Collections.sort(names);
+            modelDefinitions.put(model.getName(), names);
+            
+            List<String> includes = modelSet.getIncludes(model.getName());
+            modelIncludes.put(model.getName(), includes);
+            
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("model ").append(model.getName()).append('\n');
+            for (String include : includes) {
+                sb.append("include ").append(include).append('\n');
+            }
+            for (NamespaceDef ns : new TreeMap<String, NamespaceDef>(model.getNamespaces()).values()) {
+                sb.append("namespace ").append(ns.getGenerator()).append(' ');
+                appendValue(sb, ns.getNamespace());
+                sb.append('\n');
+            }
+            headerFingerprints.put(model.getName(), DigestUtil.digest(sb.toString()));
+        }
+    }
+    
+    /**
+     * Returns the qualified names of all definitions in the graph.
+     */
+    public Set<String> getDefinitions() {
+        return Collections.unmodifiableSet(fingerprints.keySet());
+    }
+    
+    public boolean hasDefinition(String qname) {
+        return fingerprints.containsKey(qname);
+    }
+    
+    /**
+     * Returns the definitions directly referenced by <code>qname</code>.
+     */
+    public Set<String> getDependencies(String qname) {
+        Set<String> deps = dependencies.get(qname);
+        return deps == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(deps);
+    }
+    
+    /**
+     * Returns <code>qname</code> and every definition it depends on, directly
+     * or indirectly. Cycles (e.g. mutually recursive structs) are permitted.
+     */
+    public Set<String> getTransitiveDependencies(String qname) {
+        Set<String> closure = new TreeSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.add(qname);
+        while (!pending.isEmpty()) {
+            String name = pending.removeFirst();
+            if (closure.add(name)) {
+                pending.addAll(getDependencies(name));
+            }
+        }
+        return closure;
+    }
+    
+    /**
+     * Returns a fingerprint of the definition <code>qname</code> that changes
+     * whenever the definition, anything it transitively depends on, or the
+     * header (includes and namespaces) of its own model changes.
+     * @return the fingerprint, or null if no such definition exists
+     */
+    public String getFingerprint(String qname) {
+        String fingerprint = closureFingerprints.get(qname);
+        if (fingerprint == null) {
+            if (!fingerprints.containsKey(qname)) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(1024);
+            String modelName = qname.substring(0, qname.lastIndexOf('.'));
+            sb.append(headerFingerprints.get(modelName)).append('\n');
+            for (String name : getTransitiveDependencies(qname)) {
+                sb.append(name).append(' ').append(fingerprints.get(name)).append('\n');
+            }
+            fingerprint = DigestUtil.digest(sb.toString());
+            closureFingerprints.putIfAbsent(qname, fingerprint);
+        }
+        return fingerprint;
+    }
+    
+    /**
+     * Returns a fingerprint of model <code>modelName</code> as a whole: its
+     * header and all of its definitions, and those of every model it
+     * transitively includes.
+     * @return the fingerprint, or null if no such model exists
+     */
+    public String getModelFingerprint(String modelName) {
+        String key = "model:" + modelName;
+        String fingerprint = closureFingerprints.get(key);
+        if (fingerprint == null) {
+            if (!headerFingerprints.containsKey(modelName)) {
+                return null;
+            }
+            Set<String> models = new LinkedHashSet<String>();
+            Deque<String> pending = new ArrayDeque<String>();
+            pending.add(modelName);
+            while (!pending.isEmpty()) {
+                String name = pending.removeFirst();
+                if (headerFingerprints.containsKey(name) && models.add(name)) {
+                    pending.addAll(modelIncludes.get(name));
+                }
+            }
+            StringBuilder sb = new StringBuilder(4096);
+            for (String name : models) {
+                sb.append(name).append(' ').append(headerFingerprints.get(name)).append('\n');
+                for (String def : modelDefinitions.get(name)) {
+                    sb.append(def).append(' ').append(fingerprints.get(def)).append('\n');
+                }
+            }
+            fingerprint = DigestUtil.digest(sb.toString());
+            closureFingerprints.putIfAbsent(key, fingerprint);
+        }
+        return fingerprint;
+    }
+    
+    private String addConst(ConstDef def) {
+        Set<String> deps = new TreeSet<String>();
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("const ").append(def.getName()).append(' ');
+        appendType(sb, def.getType(), deps);
+        sb.append(" = ");
+        appendValue(sb, def.getValue(), deps);
+        sb.append('\n');
+        appendAnnotations(sb, def.getAnnotations());
+        appendDocComments(sb, def.getDocComments());
+        return add(def.getQName(), sb, deps);
+    }
+    
+    private String addEnum(EnumType def) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("enum ").append(def.getName()).append('\n');
+        for (EnumType.Elem elem : def.getElements()) {
+            sb.append(elem.getName()).append(" = ").append(elem.getValue()).append('\n');
+        }
+        appendDocComments(sb, def.getDocComments());
+        return add(def.getQName(), sb, new TreeSet<String>());
+    }
+    
+    private String addFields(String qname, String kind, List<FieldDef> fields, Map<String, Object> annotations,
+            List<String> docComments, Type base) {
+        Set<String> deps = new TreeSet<String>();
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(kind).append(' ').append(qname);
+        if (base != null) {
+            sb.append(" : ");
+            appendType(sb, base, deps);
+        }
+        sb.append('\n');
+        appendFields(sb, fields, deps);
+        appendAnnotations(sb, annotations);
+        appendDocComments(sb, docComments);
+        return add(qname, sb, deps);
+    }
+    
+    private String addService(ServiceDef def) {
+        Set<String> deps = new TreeSet<String>();
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("service ").append(def.getName());
+        if (def.getSuperDef() != null) {
+            String superName = def.getSuperDef().getQName();
+            sb.append(" extends ").append(superName);
+            deps.add(superName);
+        }
+        sb.append('\n');
+        appendDocComments(sb, def.getDocComments());
+        for (FunctionDef func : def.getDefinedFunctions()) {
+            sb.append(func.isOneway() ? "oneway " : "").append("function ").append(func.getName()).append(' ');
+            appendType(sb, func.getType(), deps);
+            sb.append('\n');
+            appendFields(sb, func.getFields(), deps);
+            sb.append("throws\n");
+            appendFields(sb, func.getThrowsFields(), deps);
+            appendDocComments(sb, func.getDocComments());
+        }
+        return add(def.getQName(), sb, deps);
+    }
+    
+    private String add(String qname, StringBuilder sb, Set<String> deps) {
+        deps.remove(qname);
+        fingerprints.put(qname, DigestUtil.digest(sb.toString()));
+        dependencies.put(qname, deps);
+        return qname;
+    }
+    
+    private static void appendFields(StringBuilder sb, List<FieldDef> fields, Set<String> deps) {
+        for (FieldDef field : fields) {
+            sb.append(field.getId()).append(": ").append(field.isRequired() ? "required " : "optional ");
+            appendType(sb, field.getType(), deps);
+            sb.append(' ').append(field.getName());
+            if (field.hasInitialValue()) {
+                sb.append(" = ");
+                appendValue(sb, field.getInitialValue(), deps);
+            }
+            sb.append('\n');
+            appendAnnotations(sb, field.getAnnotations());
+            appendDocComments(sb, field.getDocComments());
+        }
+    }
+    
+    private static void appendType(StringBuilder sb, Type type, Set<String> deps) {
+        if (type instanceof CompositeType) {
+            // container names use unqualified element names, so spell them out
+            sb.append(type instanceof MapType ? "map" : type instanceof SetType ? "set" : "list").append('<');
+            boolean first = true;
+            for (Type elemType : ((CompositeType)type).getElementTypes()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendType(sb, elemType, deps);
+            }
+            sb.append('>');
+        } else {
+            String qname = type.getQName();
+            if (type.getSchema() != null) {
+                deps.add(qname);
+            }
+            sb.append(qname);
+        }
+    }
+    
+    private static void appendAnnotations(StringBuilder sb, Map<String, Object> annotations) {
+        if (annotations != null && !annotations.isEmpty()) {
+            sb.append("annotations ");
+            appendValue(sb, annotations);
+            sb.append('\n');
+        }
+    }
+    
+    private static void appendDocComments(StringBuilder sb, List<String> docComments) {
+        if (docComments != null && !docComments.isEmpty()) {
+            sb.append("doc ");
+            appendValue(sb, docComments);
+            sb.append('\n');
+        }
+    }
+    
+    static void appendValue(StringBuilder sb, Object value) {
+        appendValue(sb, value, null);
+    }
+    
+    /**
+     * Appends an unambiguous rendering of a const, initial or annotation
+     * value, independent of the iteration order of any sets or maps it
+     * contains, noting referenced consts and enums in <code>deps</code>.
+     */
+    private static void appendValue(StringBuilder sb, Object value, Set<String> deps) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            String s = (String)value;
+            sb.append('"').append(s.length()).append(':').append(s).append('"');
+        } else if (value instanceof ConstDef) {
+            String qname = ((ConstDef)value).getQName();
+            if (deps != null) {
+                deps.add(qname);
+            }
+            sb.append("const ").append(qname);
+        } else if (value instanceof EnumType.Elem) {
+            EnumType.Elem elem = (EnumType.Elem)value;
+            if (deps != null) {
+                deps.add(elem.getEnclosingEnum().getQName());
+            }
+            sb.append("enum ").append(elem.getQName());
+        } else if (value instanceof byte[]) {
+            sb.append("bytes ").append(DigestUtil.toHex((byte[])value));
+        } else if (value instanceof List) {
+            sb.append('[');
+            for (Object elem : (List<?>)value) {
+                appendValue(sb, elem, deps);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof Collection) {
+            Set<String> elems = new TreeSet<String>();
+            for (Object elem : (Collection<?>)value) {
+                StringBuilder esb = new StringBuilder();
+                appendValue(esb, elem, deps);
+                elems.add(esb.toString());
+            }
+            sb.append('{');
+            for (String elem : elems) {
+                sb.append(elem).append(',');
+            }
+            sb.append('}');
+        } else if (value instanceof Map) {
+            Map<String, String> entries = new TreeMap<String, String>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                StringBuilder ksb = new StringBuilder();
+                appendValue(ksb, entry.getKey(), deps);
+                StringBuilder vsb = new StringBuilder();
+                appendValue(vsb, entry.getValue(), deps);
+                entries.put(ksb.toString(), vsb.toString());
+            }
+            sb.append('{');
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                sb.append(entry.getKey()).append(':').append(entry.getValue()).append(',');
+            }
+            sb.append('}');
+        } else {
+            sb.append(value.getClass().getSimpleName()).append(' ').append(value);
+        }
+    }
+
+}
@@ -16,11 +16,14 @@
 
 package org.runningreds.horatio.model;
 
+import java.io.Serializable;
 import java.util.*;
 
 public class EnumType extends Type implements Named {
+    private static final long serialVersionUID = 1L;
 
-    public class Elem {
+    public class Elem implements Serializable {
+        private static final long serialVersionUID = 1L;
 
         final String name;
         final Integer value;
@@ -54,8 +57,9 @@ public class EnumType extends Type implements Named {
     }
     
 
-    private final List<Elem> elemList = Collections.synchronizedList(new ArrayList<Elem>());
-    private final Map<String, Elem> elemMap = new HashMap<String,Elem>();
+    // replaced by unmodifiable copies when sealed
+    private List<Elem> elemList = Collections.synchronizedList(new ArrayList<Elem>());
+    private Map<String, Elem> elemMap = new HashMap<String,Elem>();
     private final Set<Integer> idSet = new HashSet<Integer>();
     private final List<String> docComments;
     private volatile int nextID = 0;
@@ -75,6 +79,15 @@ public class EnumType extends Type implements Named {
     public void setComplete() {
         this.complete = true;
     }
+    
+    /**
+     * Makes this enum immutable; see {@link ModelSet#seal()}.
+     */
+    synchronized void seal() {
+        elemList = Collections.unmodifiableList(new ArrayList<Elem>(elemList));
+        elemMap = ThriftModel.freeze(elemMap);
+        complete = true;
+    }
 
     public String getName() {
         return name;
@@ -109,13 +122,24 @@ public class EnumType extends Type implements Named {
         idSet.add(id);
     }
     
-    public synchronized List<Elem> getElements() {
-        return Collections.unmodifiableList(elemList);
+    public List<Elem> getElements() {
+        if (complete) {
+            // no more elements can be added
+            return Collections.unmodifiableList(elemList);
+        }
+        synchronized(this) {
+            return Collections.unmodifiableList(elemList);
+        }
     }
     
     // would create a map by name, except that I expect this usage to be rare. 
-    public synchronized Elem getElement(String name) {
-        return elemMap.get(name);
+    public Elem getElement(String name) {
+        if (complete) {
+            return elemMap.get(name);
+        }
+        synchronized(this) {
+            return elemMap.get(name);
+        }
     }
 
     @Override
@@ -16,15 +16,15 @@
 
 package org.runningreds.horatio.model;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ExceptionType extends Type {
+    private static final long serialVersionUID = 1L;
 
     private final FieldSet fields;
-    private final Map<String, Object> annotations = Collections.synchronizedMap(new HashMap<String,Object>(2,2));
+    // shared while empty; replaced by an unmodifiable copy when sealed
+    private Map<String, Object> annotations = ThriftModel.NO_ANNOTATIONS;
     private final List<String> docComments;
 
     public ExceptionType(ThriftModel schema, Type base, String name, List<String> docComments) {
@@ -47,6 +47,11 @@ public class ExceptionType extends Type {
         this(schema, name, (List<String>)null);
     }
     
+    void seal() {
+        fields.seal();
+        annotations = ThriftModel.freeze(annotations);
+    }
+    
     public void addField(FieldDef field) throws ModelException {
         fields.addField(field);
     }
@@ -67,8 +72,8 @@ public class ExceptionType extends Type {
         return fields.hasFields();
     }
 
-    public void addAnnotation(String name, Object value) {
-        annotations.put(name, value);
+    public synchronized void addAnnotation(String name, Object value) {
+        annotations = ThriftModel.annotate(annotations, name, value);
     }
     
     public boolean hasAnnotations() {
@@ -16,21 +16,31 @@
 
 package org.runningreds.horatio.model;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
-public class FieldDef implements Named {
+public class FieldDef implements Named, Serializable {
+    private static final long serialVersionUID = 1L;
     
-    public static final Object UNSET_VALUE = new Object();
+    public static final Object UNSET_VALUE = new Unset();
+    
+    // sentinel must survive serialization of cached models as the same instance
+    private static final class Unset implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve() {
+            return UNSET_VALUE;
+        }
+    }
     
     final short id;
     final String name;
     final Type type;
     private final boolean required;
     private final Object initialValue;
-    private final Map<String, Object> annotations = Collections.synchronizedMap(new HashMap<String,Object>(2,2));
+    // shared while empty; replaced by an unmodifiable copy when sealed
+    private Map<String, Object> annotations;
     private final List<String> docComments;
 
     public FieldDef(short id, String name, Type type, boolean required, Object initialValue,
@@ -43,9 +53,7 @@ public class FieldDef implements Named {
         this.type = type;
         this.required = required;
         this.initialValue = initialValue;
-        if (annotations != null) {
-            this.annotations.putAll(annotations);
-        }
+        this.annotations = ThriftModel.annotations(annotations);
         this.docComments = docComments;
     }
     
@@ -53,6 +61,10 @@ public class FieldDef implements Named {
         this(id, name, type, true, UNSET_VALUE, (Map<String, Object>)null, (List<String>)null);
     }
 
+    void seal() {
+        annotations = ThriftModel.freeze(annotations);
+    }
+    
     public short getId() {
         return id;
     }
@@ -81,8 +93,8 @@ public class FieldDef implements Named {
         return initialValue;
     }
     
-    public void addAnnotation(String name, Object value) {
-        annotations.put(name, value);
+    public synchronized void addAnnotation(String name, Object value) {
+        annotations = ThriftModel.annotate(annotations, name, value);
     }
     
     public boolean hasAnnotations() {
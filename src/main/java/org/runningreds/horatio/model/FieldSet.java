@@ -16,59 +16,129 @@
 
 package org.runningreds.horatio.model;
 
-import java.util.ArrayList;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-public class FieldSet {
+/**
+ * The fields of a struct, exception or function argument list, in order.
+ * Fields and their ids are held in arrays, trimmed to size when sealed;
+ * most field sets are small enough to search by name directly, so only
+ * larger ones get a map.
+ */
+public class FieldSet implements Serializable {
+    private static final long serialVersionUID = 1L;
     public enum SetType {
         STRUCT,
         UNION,
         EXCEPTION,
         ARGS,
     }
-    private final List<FieldDef> fieldList = Collections.synchronizedList(new ArrayList<FieldDef>());
-    private final Map<String, FieldDef> fieldMap = new HashMap<String, FieldDef>();
-    private final Set<Short> idSet = new HashSet<Short>();
+    
+    private static final FieldDef[] NO_FIELDS = new FieldDef[0];
+    private static final short[] NO_IDS = new short[0];
+    // sets with more fields than this are also indexed by name
+    private static final int INDEX_THRESHOLD = 8;
+    
+    private FieldDef[] fields = NO_FIELDS;
+    private short[] ids = NO_IDS;
+    private int size;
+    private Map<String, FieldDef> fieldMap;
+    // set when sealed
+    private List<FieldDef> fieldList;
     
     private final String ownerName;
+    private volatile boolean sealed;
     
     public FieldSet(String ownerName) {
         this.ownerName = ownerName;
     }
 
+    /**
+     * Makes this field set immutable; see {@link ModelSet#seal()}.
+     */
+    public synchronized void seal() {
+        if (sealed) {
+            return;
+        }
+        if (size < fields.length) {
+            fields = size == 0 ? NO_FIELDS : Arrays.copyOf(fields, size);
+            ids = size == 0 ? NO_IDS : Arrays.copyOf(ids, size);
+        }
+        fieldList = size == 0 ? Collections.<FieldDef>emptyList() : Collections.unmodifiableList(Arrays.asList(fields));
+        for (FieldDef field : fields) {
+            field.seal();
+        }
+        sealed = true;
+    }
+    
     public synchronized void addField(FieldDef field) throws ModelException {
-        if (idSet.contains(field.id)) {
-            throw new ModelException("Duplicate field id (" + field.id +
-                    ") in  \"" + ownerName + "\"");
+        if (sealed) {
+            throw new ModelException("Fields of \"" + ownerName + "\" are sealed");
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == field.id) {
+                throw new ModelException("Duplicate field id (" + field.id +
+                        ") in  \"" + ownerName + "\"");
+            }
         }
-        if (fieldMap.containsKey(field.name)) {
+        if (getField(field.name) != null) {
             throw new ModelException("Duplicate field name \"" + field.name +
                     "\" in  \"" + ownerName + "\"");
         }
-        fieldList.add(field);
-        fieldMap.put(field.name, field);
-        idSet.add(field.id);
+        if (size == fields.length) {
+            int capacity = size == 0 ? 4 : size * 2;
+            fields = Arrays.copyOf(fields, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        fields[size] = field;
+        ids[size] = field.id;
+        size++;
+        if (fieldMap != null) {
+            fieldMap.put(field.name, field);
+        } else if (size > INDEX_THRESHOLD) {
+            fieldMap = new HashMap<String, FieldDef>(size * 2);
+            for (int i = 0; i < size; i++) {
+                fieldMap.put(fields[i].name, fields[i]);
+            }
+        }
     }
     
-    public synchronized List<FieldDef> getFields() {
-        return Collections.unmodifiableList(fieldList);
+    public List<FieldDef> getFields() {
+        if (sealed) {
+            return fieldList;
+        }
+        synchronized(this) {
+            return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(fields, size)));
+        }
     }
     
     public boolean hasField(String name) {
-        return fieldMap.containsKey(name);
+        return getField(name) != null;
     }
     
     public FieldDef getField(String name) {
-        return fieldMap.get(name);
+        if (fieldMap != null) {
+            return fieldMap.get(name);
+        }
+        FieldDef[] fields = this.fields;
+        for (int i = 0; i < fields.length; i++) {
+            FieldDef field = fields[i];
+            if (field == null) {
+                break;
+            }
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        return null;
     }
     
     public boolean hasFields() {
-        return !fieldList.isEmpty();
+        return size > 0;
     }
     
 }
@@ -19,6 +19,7 @@ package org.runningreds.horatio.model;
 import java.util.List;
 
 public class FunctionDef extends ModelComponent implements Named {
+    private static final long serialVersionUID = 1L;
 
     private final ServiceDef service;
     private final String name;
@@ -43,6 +44,11 @@ public class FunctionDef extends ModelComponent implements Named {
         this(service, name, type, oneway, (List<String>)null);
     }
 
+    void seal() {
+        argFields.seal();
+        throwsFields.seal();
+    }
+    
     public ServiceDef getService() {
         return service;
     }
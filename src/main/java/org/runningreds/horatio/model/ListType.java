@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ListType extends CompositeType {
+    private static final long serialVersionUID = 1L;
 
     private ListType(String name, Type elemType) {
         super(name, Category.CONTAINER, elemType);
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class MapType extends CompositeType {
+    private static final long serialVersionUID = 1L;
     
     private MapType(String name, Type keyType, Type valueType) {
         super(name, Category.CONTAINER, keyType, valueType);
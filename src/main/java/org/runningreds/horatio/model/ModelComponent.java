@@ -16,7 +16,10 @@
 
 package org.runningreds.horatio.model;
 
-public abstract class ModelComponent {
+import java.io.Serializable;
+
+public abstract class ModelComponent implements Serializable {
+    private static final long serialVersionUID = 1L;
     
     final ThriftModel schema;
     
@@ -16,20 +16,31 @@
 
 package org.runningreds.horatio.model;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.jfr.Events;
 
 
-public class ModelSet {
+public class ModelSet implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-    private final Map<String, ThriftModel> models = new HashMap<String, ThriftModel>();
-    private final Map<String, Type> typeMap = new HashMap<String, Type>();
+    // replaced by unmodifiable copies when sealed
+    private Map<String, ThriftModel> models = new HashMap<String, ThriftModel>();
+    private Map<String, Type> typeMap = new HashMap<String, Type>();
+    // definitions of all models by qualified name, for ThriftModel.lookup
+    private Map<String, Object> symbolMap = new HashMap<String, Object>();
+    private final Map<String, FileRef> sources = new LinkedHashMap<String, FileRef>();
+    private final Map<String, List<String>> includes = new HashMap<String, List<String>>();
     
     private volatile FileRef modelPath;
+    private volatile boolean sealed;
     
     public ModelSet() {
         synchronized(typeMap) {
@@ -45,11 +56,94 @@ public class ModelSet {
         this.modelPath = modelPath;
     }
 
+    /**
+     * Records the file or URL a model was parsed from.
+     */
+    public void addSource(String modelName, FileRef source) {
+        synchronized(sources) {
+            sources.put(modelName, source);
+        }
+    }
+    
+    /**
+     * Returns the files or URLs from which the loaded models were parsed,
+     * by model name, in load order.
+     */
+    public Map<String, FileRef> getSources() {
+        synchronized(sources) {
+            return new LinkedHashMap<String, FileRef>(sources);
+        }
+    }
+
+    /**
+     * Records that model <code>modelName</code> includes model
+     * <code>includedName</code>.
+     */
+    public void addInclude(String modelName, String includedName) {
+        synchronized(includes) {
+            List<String> names = includes.get(modelName);
+            if (names == null) {
+                includes.put(modelName, names = new ArrayList<String>(4));
+            }
+            if (!names.contains(includedName)) {
+                names.add(includedName);
+            }
+        }
+    }
+    
+    /**
+     * Returns the names of the models directly included by
+     * <code>modelName</code>, in include order.
+     */
+    public List<String> getIncludes(String modelName) {
+        synchronized(includes) {
+            List<String> names = includes.get(modelName);
+            return names == null ? new ArrayList<String>(0) : new ArrayList<String>(names);
+        }
+    }
+    
+    /**
+     * Makes this model set and all of its models immutable, once parsing is
+     * complete. Sealed models may be read concurrently without locking, and
+     * adding to them throws ModelException.
+     */
+    public void seal() {
+        if (sealed) {
+            return;
+        }
+        List<ThriftModel> loaded;
+        synchronized(models) {
+            loaded = new ArrayList<ThriftModel>(models.values());
+            models = Collections.unmodifiableMap(new HashMap<String, ThriftModel>(models));
+        }
+        for (ThriftModel model : loaded) {
+            model.seal();
+        }
+        synchronized(typeMap) {
+            typeMap = Collections.unmodifiableMap(new HashMap<String, Type>(typeMap));
+        }
+        synchronized(symbolMap) {
+            symbolMap = Collections.unmodifiableMap(new HashMap<String, Object>(symbolMap));
+        }
+        sealed = true;
+    }
+    
+    public boolean isSealed() {
+        return sealed;
+    }
+    
+    private void checkNotSealed() throws ModelException {
+        if (sealed) {
+            throw new ModelException("Model set is sealed");
+        }
+    }
+    
     public ThriftModel createModel(String name) {
         if (name == null) {
             throw new IllegalArgumentException("name");
         }
         synchronized(models) {
+            checkNotSealed();
             if (models.containsKey(name)) {
                 throw new ModelException("Model \"" + name + "\" already exists");
             }
@@ -60,18 +154,27 @@ public class ModelSet {
     }
     
     public boolean isModelLoaded(String name) {
+        if (sealed) {
+            return models.containsKey(name);
+        }
         synchronized(models) {
             return models.containsKey(name);
         }
     }
     
     public ThriftModel getModel(String name) {
+        if (sealed) {
+            return models.get(name);
+        }
         synchronized(models) {
             return models.get(name);
         }
     }
     
     public List<ThriftModel> getLoadedModels() {
+        if (sealed) {
+            return new ArrayList<ThriftModel>(models.values());
+        }
         synchronized(models) {
             return new ArrayList<ThriftModel>(models.values());
         }
@@ -79,32 +182,68 @@ public class ModelSet {
 
     public void registerType(String name, Type type) throws ModelException {
         synchronized(typeMap) {
+            checkNotSealed();
             if (typeMap.containsKey(name)) {
                 throw new ModelException("Type \"" + name + "\" already registered");
             }
             typeMap.put(name, type);
         }
+        Events.typeRegistered(name);
     }
     
     public Type registerTypeIfNew(String name, Type type) throws ModelException {
+        if (sealed) {
+            // a container type not used by the model may still be asked for;
+            // it just isn't registered
+            Type t = typeMap.get(name);
+            return t == null ? type : t;
+        }
+        Type t;
         synchronized(typeMap) {
-            Type t;
-            if ((t = typeMap.get(name)) == null) {
-                typeMap.put(name, t = type);
+            if ((t = typeMap.get(name)) != null) {
+                return t;
             }
-            return t;
+            checkNotSealed();
+            typeMap.put(name, t = type);
         }
+        Events.typeRegistered(name);
+        return t;
     }
     
     public boolean isTypeRegistered(String name) {
+        if (sealed) {
+            return typeMap.containsKey(name);
+        }
         synchronized(typeMap) {
             return typeMap.containsKey(name);
         }
     }
 
     public Type getType(String name) {
+        if (sealed) {
+            return typeMap.get(name);
+        }
         synchronized(typeMap) {
             return typeMap.get(name);
         }
     }
+
+    void registerSymbol(String qname, Object def) {
+        synchronized(symbolMap) {
+            symbolMap.put(qname, def);
+        }
+    }
+    
+    /**
+     * Returns the constant, enum, enum element, struct, exception or service
+     * with qualified name <code>qname</code>, or null.
+     */
+    public Object getSymbol(String qname) {
+        if (sealed) {
+            return symbolMap.get(qname);
+        }
+        synchronized(symbolMap) {
+            return symbolMap.get(qname);
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package org.runningreds.horatio.model;
 
 public class NamespaceDef extends ModelComponent {
+    private static final long serialVersionUID = 1L;
 
     final String generator;
     final String namespace;
@@ -23,11 +23,16 @@ import java.util.List;
 import java.util.Map;
 
 public class ServiceDef extends ModelComponent implements Named {
+    private static final long serialVersionUID = 1L;
 
     final String name;
     final ServiceDef superDef;
-    private final List<FunctionDef> funcList = Collections.synchronizedList(new ArrayList<FunctionDef>());
-    private final Map<String, FunctionDef> funcMap = new HashMap<String, FunctionDef>();
+    // replaced by unmodifiable copies when sealed
+    private List<FunctionDef> funcList = Collections.synchronizedList(new ArrayList<FunctionDef>());
+    private Map<String, FunctionDef> funcMap = new HashMap<String, FunctionDef>();
+    // this service's and its ancestors' functions, once sealed
+    private List<FunctionDef> allFuncs;
+    private volatile boolean sealed;
     private final List<String> docComments;
     
     public ServiceDef(ThriftModel schema, String name, ServiceDef superDef, List<String> docComments) {
@@ -54,7 +59,27 @@ public class ServiceDef extends ModelComponent implements Named {
         return  schema.qname(name);
     }
     
+    /**
+     * Makes this service immutable; see {@link ModelSet#seal()}. The super
+     * service, if any, may be sealed before or after.
+     */
+    synchronized void seal() {
+        if (sealed) {
+            return;
+        }
+        funcList = Collections.unmodifiableList(new ArrayList<FunctionDef>(funcList));
+        funcMap = ThriftModel.freeze(funcMap);
+        for (FunctionDef def : funcList) {
+            def.seal();
+        }
+        allFuncs = Collections.unmodifiableList(getFunctions());
+        sealed = true;
+    }
+    
     public synchronized void addFunction(FunctionDef def) throws ModelException {
+        if (sealed) {
+            throw new ModelException("Service \"" + getQName() + "\" is sealed");
+        }
         String name = def.getName();
         
         // FIXME: allow override by subtypes? check Thrift impl
@@ -72,8 +97,13 @@ public class ServiceDef extends ModelComponent implements Named {
      * @return the functions defined by this service, excluding
      *         those defined in ancestor services.
      */
-    public synchronized List<FunctionDef> getDefinedFunctions() {
-        return Collections.unmodifiableList(funcList);
+    public List<FunctionDef> getDefinedFunctions() {
+        if (sealed) {
+            return funcList;
+        }
+        synchronized(this) {
+            return Collections.unmodifiableList(funcList);
+        }
     }
     
     /**
@@ -82,20 +112,34 @@ public class ServiceDef extends ModelComponent implements Named {
      * @return the functions defined  by this service, plus any
      *         defined by ancestor services.
      */
-    public synchronized List<FunctionDef> getFunctions() {
-        if (superDef == null) {
-            return new ArrayList<FunctionDef>(funcList);
+    public List<FunctionDef> getFunctions() {
+        if (sealed) {
+            return allFuncs;
+        }
+        synchronized(this) {
+            if (superDef == null) {
+                return new ArrayList<FunctionDef>(funcList);
+            }
+            List<FunctionDef> list = new ArrayList<FunctionDef>(superDef.getFunctions());
+            list.addAll(funcList);
+            return list;
         }
-        List<FunctionDef> list = superDef.getFunctions();
-        list.addAll(funcList);
-        return list;
     }
     
     public boolean isFunctionDefined(String name) {
         return getFunction(name) != null;
     }
     
-    public synchronized FunctionDef getFunction(String name) {
+    public FunctionDef getFunction(String name) {
+        if (sealed) {
+            return doGetFunction(name);
+        }
+        synchronized(this) {
+            return doGetFunction(name);
+        }
+    }
+    
+    private FunctionDef doGetFunction(String name) {
         FunctionDef def;
         if ((def = funcMap.get(name))  != null) {
             return def;
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 public class SetType extends CompositeType {
+    private static final long serialVersionUID = 1L;
 
     private SetType(String name, Type elemType) {
         super(name, Category.CONTAINER, elemType);
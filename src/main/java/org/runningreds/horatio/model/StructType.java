@@ -16,16 +16,16 @@
 
 package org.runningreds.horatio.model;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class StructType extends Type implements Named {
+    private static final long serialVersionUID = 1L;
 
     private final boolean isUnion;
     private final FieldSet fields;
-    private final Map<String, Object> annotations = Collections.synchronizedMap(new HashMap<String,Object>(2,2));
+    // shared while empty; replaced by an unmodifiable copy when sealed
+    private Map<String, Object> annotations = ThriftModel.NO_ANNOTATIONS;
     private final List<String> docComments;
     
     public StructType(ThriftModel schema, String name, boolean isUnion, List<String> docComments) {
@@ -39,6 +39,11 @@ public class StructType extends Type implements Named {
         this(schema, name, isUnion, (List<String>)null);
     }
     
+    void seal() {
+        fields.seal();
+        annotations = ThriftModel.freeze(annotations);
+    }
+    
     public boolean isUnion() {
         return isUnion;
     }
@@ -63,8 +68,8 @@ public class StructType extends Type implements Named {
         return fields.hasFields();
     }
 
-    public void addAnnotation(String name, Object value) {
-        annotations.put(name, value);
+    public synchronized void addAnnotation(String name, Object value) {
+        annotations = ThriftModel.annotate(annotations, name, value);
     }
     
     public boolean hasAnnotations() {
@@ -16,56 +16,139 @@
 
 package org.runningreds.horatio.model;
 
+import java.io.Serializable;
 import java.util.*;
 
 
-public class ThriftModel {
+public class ThriftModel implements Serializable {
+    private static final long serialVersionUID = 1L;
     
-    private final Map<String, NamespaceDef> namespaceDefs = Collections.synchronizedMap(new HashMap<String, NamespaceDef>());
-    private final Map<String, ConstDef> constDefs = Collections.synchronizedMap(new HashMap<String, ConstDef>());
-    private final Map<String, EnumType.Elem> enumElemDefs = Collections.synchronizedMap(new HashMap<String, EnumType.Elem>());
-    private final Map<String, EnumType> enumDefs = Collections.synchronizedMap(new HashMap<String, EnumType>());
-    private final Map<String, StructType> structDefs = Collections.synchronizedMap(new HashMap<String, StructType>());
-    private final Map<String, ExceptionType> excepDefs = Collections.synchronizedMap(new HashMap<String, ExceptionType>());
-    private final Map<String, ServiceDef> serviceDefs  = Collections.synchronizedMap(new HashMap<String, ServiceDef>());
+    // replaced by unmodifiable copies when sealed
+    private Map<String, NamespaceDef> namespaceDefs = Collections.synchronizedMap(new HashMap<String, NamespaceDef>());
+    private Map<String, ConstDef> constDefs = Collections.synchronizedMap(new HashMap<String, ConstDef>());
+    private Map<String, EnumType.Elem> enumElemDefs = Collections.synchronizedMap(new HashMap<String, EnumType.Elem>());
+    private Map<String, EnumType> enumDefs = Collections.synchronizedMap(new HashMap<String, EnumType>());
+    private Map<String, StructType> structDefs = Collections.synchronizedMap(new HashMap<String, StructType>());
+    private Map<String, ExceptionType> excepDefs = Collections.synchronizedMap(new HashMap<String, ExceptionType>());
+    private Map<String, ServiceDef> serviceDefs  = Collections.synchronizedMap(new HashMap<String, ServiceDef>());
+    // all of the above that lookup() finds, by local name, so it takes one
+    // probe rather than six; guarded by this model until sealed
+    private Map<String, Object> symbols = new HashMap<String, Object>();
+    // types defined here, typedefs included, by local name
+    private Map<String, Type> types = new HashMap<String, Type>();
     
     private final ModelSet models;
     final String name;
+    private volatile boolean sealed;
     
     ThriftModel(ModelSet modelSet, String name) {
         this.models = modelSet;
         this.name = name;
     }
+    
+    /**
+     * Makes this model and its definitions immutable; see {@link ModelSet#seal()}.
+     */
+    synchronized void seal() {
+        if (sealed) {
+            return;
+        }
+        synchronized(namespaceDefs) {
+            namespaceDefs = freeze(namespaceDefs);
+        }
+        constDefs = freeze(constDefs);
+        enumElemDefs = freeze(enumElemDefs);
+        enumDefs = freeze(enumDefs);
+        structDefs = freeze(structDefs);
+        excepDefs = freeze(excepDefs);
+        serviceDefs = freeze(serviceDefs);
+        symbols = freeze(symbols);
+        types = freeze(types);
+        for (ConstDef def : constDefs.values()) {
+            def.seal();
+        }
+        for (EnumType def : enumDefs.values()) {
+            def.seal();
+        }
+        for (StructType def : structDefs.values()) {
+            def.seal();
+        }
+        for (ExceptionType def : excepDefs.values()) {
+            def.seal();
+        }
+        for (ServiceDef def : serviceDefs.values()) {
+            def.seal();
+        }
+        sealed = true;
+    }
+    
+    public boolean isSealed() {
+        return sealed;
+    }
+    
+    // keeps iteration order, so templates see definitions in the same order
+    // as before sealing
+    static <K, V> Map<K, V> freeze(Map<K, V> map) {
+        if (map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<K, V>(map));
+    }
+    
+    // stands in for the annotations of definitions that have none, until
+    // one is added; most definitions never have any
+    static final Map<String, Object> NO_ANNOTATIONS = Collections.unmodifiableMap(new HashMap<String, Object>(0));
+    
+    static Map<String, Object> annotations(Map<String, Object> annotations) {
+        if (annotations == null || annotations.isEmpty()) {
+            return NO_ANNOTATIONS;
+        }
+        return Collections.synchronizedMap(new HashMap<String, Object>(annotations));
+    }
+    
+    static Map<String, Object> annotate(Map<String, Object> annotations, String name, Object value) {
+        if (annotations == NO_ANNOTATIONS) {
+            annotations = Collections.synchronizedMap(new HashMap<String, Object>(2, 2));
+        }
+        annotations.put(name, value);
+        return annotations;
+    }
+    
+    private void checkNotSealed() throws ModelException {
+        if (sealed) {
+            throw new ModelException("Model \"" + name + "\" is sealed");
+        }
+    }
 
-    public synchronized Object lookup(String name) {
-        Object val;
-        // local cases first:
-        if ((val = constDefs.get(name)) != null ||
-                (val = enumElemDefs.get(name)) != null ||
-                (val = enumDefs.get(name)) != null ||
-                (val = structDefs.get(name)) != null ||
-                (val = excepDefs.get(name)) != null ||
-                (val = serviceDefs.get(name)) != null)
-        {
-            return val;
-        }
-        // not here, try other (included) models
-        int index;
-        if ((index = name.indexOf('.')) > 0) {
-            ThriftModel model;
-            if ((model = models.getModel(name.substring(0, index))) != null) {
-                return model.lookup(name.substring(index + 1));
-            }
+    public Object lookup(String name) {
+        if (sealed) {
+            return doLookup(name);
+        }
+        synchronized(this) {
+            return doLookup(name);
+        }
+    }
+    
+    private Object doLookup(String name) {
+        Object val = symbols.get(name);
+        if (val == null && name.indexOf('.') > 0) {
+            // not here; may be qualified by the name of this or another (included) model
+            val = models.getSymbol(name);
         }
-        return null;
+        return val;
     }
     
     public Type lookupType(String name) {
         Type type;
-        if ((type = models.getType(name)) != null || (type = models.getType(qname(name))) != null) {
-            return type;
+        if (sealed) {
+            type = types.get(name);
+        } else {
+            synchronized(this) {
+                type = types.get(name);
+            }
         }
-        return null;
+        // built-in, container and qualified names are only known to the model set
+        return type != null ? type : models.getType(name);
     }
     
     
@@ -80,6 +163,7 @@ public class ThriftModel {
     public void addNamespace(NamespaceDef def) throws ModelException {
         String gen = def.generator;
         synchronized(namespaceDefs) {
+            checkNotSealed();
             if (namespaceDefs.containsKey(gen)) {
                 throw new ModelException("Duplicate namespace defined for generator \"" + gen + "\"");
             }
@@ -103,9 +187,11 @@ public class ThriftModel {
     }
     
     public synchronized void addConst(ConstDef def) throws ModelException {
+        checkNotSealed();
         String name = def.name;
         checkName(name);
         constDefs.put(name, def);
+        addSymbol(name, def);
     }
     
     public Map<String, ConstDef> getConsts() {
@@ -113,13 +199,16 @@ public class ThriftModel {
     }
     
     public synchronized void addEnum(EnumType def) throws ModelException {
+        checkNotSealed();
         String name = def.name;
         checkName(name);
         enumDefs.put(name, def);
-        models.registerType(def.getQName(), def);
+        addType(name, def);
+        addSymbol(name, def);
         for (EnumType.Elem elem : def.getElements()) {
             String elemName = name + '.' + elem.getName();
             enumElemDefs.put(elemName, elem);
+            addSymbol(elemName, elem);
         }
     }
     
@@ -128,10 +217,12 @@ public class ThriftModel {
     }
     
     public synchronized void addStruct(StructType def) throws ModelException {
+        checkNotSealed();
         String name = def.name;
         checkName(name);
         structDefs.put(name, def);
-        models.registerType(def.getQName(), def);
+        addType(name, def);
+        addSymbol(name, def);
     }
     
     public Map<String, StructType> getStructs() {
@@ -139,10 +230,12 @@ public class ThriftModel {
     }
     
     public synchronized void addException(ExceptionType def) throws ModelException {
+        checkNotSealed();
         String name = def.name;
         checkName(name);
         excepDefs.put(name, def);
-        models.registerType(def.getQName(), def);
+        addType(name, def);
+        addSymbol(name, def);
     }
     
     public Map<String, ExceptionType> getExceptions() {
@@ -150,9 +243,29 @@ public class ThriftModel {
     }
 
     public synchronized void addService(ServiceDef def) throws ModelException {
+        checkNotSealed();
         String name = def.name;
         checkName(name);
         serviceDefs.put(name, def);
+        addSymbol(name, def);
+    }
+    
+    /**
+     * Defines <code>name</code> as another name for <code>type</code>.
+     */
+    public synchronized void addTypedef(String name, Type type) throws ModelException {
+        checkNotSealed();
+        addType(name, type);
+    }
+    
+    private void addType(String name, Type type) throws ModelException {
+        models.registerType(qname(name), type);
+        types.put(name, type);
+    }
+    
+    private void addSymbol(String name, Object def) {
+        symbols.put(name, def);
+        models.registerSymbol(qname(name), def);
     }
     
     public Map<String, ServiceDef> getServices() {
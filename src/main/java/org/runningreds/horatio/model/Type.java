@@ -16,9 +16,11 @@
 
 package org.runningreds.horatio.model;
 
+import java.io.Serializable;
 import java.util.List;
 
-public class Type {
+public class Type implements Serializable {
+    private static final long serialVersionUID = 1L;
     
     private static final long LONG2DOUB_MAX = 1L << 53;
     private static final long LONG2DOUB_MIN = -LONG2DOUB_MAX;
@@ -189,6 +191,21 @@ public class Type {
         this.category = category;
     }
     
+    /**
+     * Keeps the primitive type singletons unique when a model is deserialized,
+     * as generators compare them by identity.
+     */
+    protected Object readResolve() {
+        if (getClass() == Type.class && schema == null && base == this) {
+            for (Type type : new Type[] { BOOL, BYTE, I16, I32, I64, DOUBLE, BINARY, STRING, VOID }) {
+                if (type.name.equals(name) && type.category == category) {
+                    return type;
+                }
+            }
+        }
+        return this;
+    }
+    
     public Type(String name, Category category) {
         this((ThriftModel)null, null, name, category);
     }
@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Reader that decodes the remaining content of a ByteBuffer a chunk at a
+ * time as it is read, so that a (possibly memory-mapped) file can be fed to
+ * a JavaCC parser without first being copied whole. Malformed input is
+ * replaced, as by InputStreamReader. The buffer's position is not changed.
+ */
+public class ByteBufferReader extends Reader {
+    
+    private final ByteBuffer in;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+    private boolean eof;
+    
+    public ByteBufferReader(ByteBuffer in, Charset charset) {
+        this.in = in.duplicate();
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.limit(0);
+    }
+    
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chars.remaining());
+        chars.get(cbuf, off, n);
+        return n;
+    }
+    
+    private boolean fill() {
+        chars.clear();
+        while (chars.position() == 0 && !eof) {
+            CoderResult result = decoder.decode(in, chars, true);
+            if (result.isUnderflow()) {
+                decoder.flush(chars);
+                eof = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+    
+    @Override
+    public void close() {
+        eof = true;
+        chars.limit(0);
+    }
+
+}
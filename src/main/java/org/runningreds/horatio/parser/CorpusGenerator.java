@@ -0,0 +1,495 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic Thrift IDL corpora, with matching templates and genspec,
+ * for load and scaling tests. The same settings and seed always produce the
+ * same files.
+ * <p>
+ * A corpus consists of <code>idl/common.thrift</code>, holding a share of
+ * the enums and structs and an exception; <code>include_fanout</code> part
+ * files <code>idl/part&lt;n&gt;.thrift</code>, each including common and
+ * holding an equal share of the remaining enums, structs and unions; and the
+ * root <code>idl/corpus.thrift</code>, which includes all of them and holds
+ * the services. With a fan-out of 0, everything is in the root file. Fields
+ * reference primitive types, enums and structs (earlier in the same file, or
+ * in common), wrapped in containers up to <code>container_depth</code>
+ * deep. <code>corpus.gen</code> has a target per IDL file, generating a file
+ * per struct, union, enum and service, and one per model.
+ * <p>
+ * Usage: <code>CorpusGenerator [--structs n] [--unions n] [--enums n]
+ * [--services n] [--fields n] [--container-depth n] [--include-fanout n]
+ * [--doc-density 0..1] [--seed n] &lt;output_dir&gt;</code>
+ */
+public class CorpusGenerator {
+    
+    public static final String ROOT_MODEL = "corpus";
+    public static final String COMMON_MODEL = "common";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String[] PRIMITIVES = { "bool", "byte", "i16", "i32", "i64", "double", "string", "binary" };
+    private static final String[] KEY_TYPES = { "string", "i32", "i64" };
+    private static final String[] WORDS = { "order", "item", "customer", "account", "line", "price", "status",
+        "created", "updated", "name", "id", "url", "total", "count", "region", "code", "value", "tag" };
+    
+    private int structs = 1000;
+    private int unions = 100;
+    private int enums = 100;
+    private int services = 10;
+    private int fieldsPerStruct = 10;
+    private int containerDepth = 2;
+    private int includeFanout = 4;
+    private double docDensity = 0.25;
+    private long seed = 1;
+    
+    private Random random;
+    private long bytes;
+    private int definitions;
+    
+    public void setStructs(int structs) {
+        this.structs = structs;
+    }
+    
+    public void setUnions(int unions) {
+        this.unions = unions;
+    }
+    
+    public void setEnums(int enums) {
+        this.enums = enums;
+    }
+    
+    public void setServices(int services) {
+        this.services = services;
+    }
+    
+    public void setFieldsPerStruct(int fieldsPerStruct) {
+        this.fieldsPerStruct = fieldsPerStruct;
+    }
+    
+    public void setContainerDepth(int containerDepth) {
+        this.containerDepth = containerDepth;
+    }
+    
+    public void setIncludeFanout(int includeFanout) {
+        this.includeFanout = includeFanout;
+    }
+    
+    /**
+     * Sets the fraction (0 to 1) of definitions, fields and functions that
+     * have doc comments.
+     */
+    public void setDocDensity(double docDensity) {
+        this.docDensity = docDensity;
+    }
+    
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Returns the total size of the IDL files written by the last
+     * {@link #generate}.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Returns the number of enums, structs, unions, exceptions and services
+     * written by the last {@link #generate}.
+     */
+    public int getDefinitions() {
+        return definitions;
+    }
+    
+    /**
+     * Writes a corpus into <code>dir</code>.
+     * @return the root IDL file, which (indirectly) includes all the others
+     */
+    public File generate(File dir) throws IOException {
+        if (includeFanout < 0 || structs < 0 || unions < 0 || enums < 0 || services < 0 || fieldsPerStruct < 0) {
+            throw new IllegalArgumentException("Counts may not be negative");
+        }
+        File idlDir = new File(dir, "idl");
+        idlDir.mkdirs();
+        random = new Random(seed);
+        bytes = 0;
+        definitions = 0;
+        
+        List<String> models = new ArrayList<String>();
+        // names visible to the root (qualified), for services
+        Scope rootScope = new Scope();
+        int commonEnums = 0;
+        int commonStructs = 0;
+        if (includeFanout > 0) {
+            commonEnums = (enums + 9) / 10;
+            commonStructs = (structs + 19) / 20;
+            Scope commonScope = new Scope();
+            Writer out = open(idlDir, COMMON_MODEL);
+            try {
+                out.write("namespace java corpus.common\n\n");
+                writeExceptions(out, commonScope);
+                writeDefinitions(out, commonScope, commonEnums, commonStructs, 0, "Common");
+            } finally {
+                out.close();
+            }
+            models.add(COMMON_MODEL);
+            rootScope.addQualified(commonScope, COMMON_MODEL);
+            
+            for (int p = 0; p < includeFanout; p++) {
+                String partName = "part" + p;
+                Scope partScope = new Scope();
+                partScope.addQualified(commonScope, COMMON_MODEL);
+                out = open(idlDir, partName);
+                try {
+                    out.write("include \"" + COMMON_MODEL + ".thrift\"\n");
+                    out.write("namespace java corpus." + partName + "\n\n");
+                    writeDefinitions(out, partScope, share(enums - commonEnums, p), share(structs - commonStructs, p),
+                            share(unions, p), "P" + p);
+                } finally {
+                    out.close();
+                }
+                models.add(partName);
+                rootScope.addQualified(partScope.local(), partName);
+            }
+        }
+        
+        Writer out = open(idlDir, ROOT_MODEL);
+        try {
+            for (String model : models) {
+                out.write("include \"" + model + ".thrift\"\n");
+            }
+            out.write("namespace java corpus\n\n");
+            if (includeFanout == 0) {
+                writeExceptions(out, rootScope);
+                writeDefinitions(out, rootScope, enums, structs, unions, "");
+            }
+            writeServices(out, rootScope);
+        } finally {
+            out.close();
+        }
+        models.add(ROOT_MODEL);
+        
+        writeGenspec(dir, models);
+        return new File(idlDir, ROOT_MODEL + ".thrift");
+    }
+    
+    // the p'th of includeFanout nearly equal shares of count
+    private int share(int count, int p) {
+        return count / includeFanout + (p < count % includeFanout ? 1 : 0);
+    }
+    
+    private Writer open(File dir, String model) throws IOException {
+        return new CountingWriter(new FileOutputStream(new File(dir, model + ".thrift")));
+    }
+    
+    private void writeExceptions(Writer out, Scope scope) throws IOException {
+        writeDoc(out, "", "Raised by corpus services.");
+        out.write("exception CorpusError {\n  1: string message,\n  2: i32 code\n}\n\n");
+        scope.exceptions.add("CorpusError");
+        definitions++;
+    }
+    
+    private void writeDefinitions(Writer out, Scope scope, int enumCount, int structCount, int unionCount,
+            String prefix) throws IOException {
+        for (int i = 0; i < enumCount; i++) {
+            String name = prefix + "Enum" + i;
+            writeDoc(out, "", "Enum " + name + ".");
+            out.write("enum " + name + " {\n");
+            for (int v = 0, limit = 3 + random.nextInt(6); v < limit; v++) {
+                String value = WORDS[(v * 7 + i) % WORDS.length].toUpperCase() + '_' + v;
+                out.write("  " + value + (v == 2 ? " = 10" : "") + ",\n");
+            }
+            out.write("}\n\n");
+            scope.enums.add(name);
+            definitions++;
+        }
+        for (int i = 0; i < structCount; i++) {
+            writeStruct(out, scope, "struct", prefix + "Struct" + i);
+            scope.structs.add(prefix + "Struct" + i);
+        }
+        for (int i = 0; i < unionCount; i++) {
+            writeStruct(out, scope, "union", prefix + "Union" + i);
+        }
+    }
+    
+    private void writeStruct(Writer out, Scope scope, String kind, String name) throws IOException {
+        writeDoc(out, "", "The " + name + " " + kind + ".");
+        out.write(kind + " " + name + " {\n");
+        for (int f = 1; f <= fieldsPerStruct; f++) {
+            writeDoc(out, "  ", "Field " + f + " of " + name + ".");
+            out.write("  " + f + ": ");
+            if (!"union".equals(kind) && random.nextInt(4) == 0) {
+                out.write(random.nextBoolean() ? "required " : "optional ");
+            }
+            out.write(fieldType(scope, 0) + " " + fieldName(f));
+            out.write(",\n");
+        }
+        out.write("}\n\n");
+        definitions++;
+    }
+    
+    private void writeServices(Writer out, Scope scope) throws IOException {
+        for (int i = 0; i < services; i++) {
+            String name = "Service" + i;
+            writeDoc(out, "", "The " + name + " service.");
+            out.write("service " + name + (i > 0 && random.nextInt(4) == 0 ? " extends Service" + random.nextInt(i) : "") + " {\n");
+            for (int f = 0, limit = Math.max(1, fieldsPerStruct); f < limit; f++) {
+                writeDoc(out, "  ", "Function " + f + " of " + name + ".");
+                if (f == limit - 1 && limit > 1) {
+                    out.write("  oneway void notify" + i + '_' + f + "(1: string event),\n");
+                    continue;
+                }
+                // services may extend each other, so function names must be unique
+                out.write("  " + fieldType(scope, containerDepth) + " call" + i + '_' + f + "(");
+                for (int a = 1, args = 1 + random.nextInt(3); a <= args; a++) {
+                    out.write((a > 1 ? ", " : "") + a + ": " + fieldType(scope, 0) + " " + fieldName(a));
+                }
+                out.write(")");
+                if (!scope.exceptions.isEmpty()) {
+                    out.write(" throws (1: " + pick(scope.exceptions) + " err)");
+                }
+                out.write(",\n");
+            }
+            out.write("}\n\n");
+            definitions++;
+        }
+    }
+    
+    private String fieldType(Scope scope, int depth) {
+        int choice = random.nextInt(20);
+        if (choice < 5 && depth < containerDepth) {
+            String elemType = fieldType(scope, depth + 1);
+            switch (random.nextInt(3)) {
+            case 0: return "list<" + elemType + ">";
+            case 1: return "set<" + elemType + ">";
+            default: return "map<" + KEY_TYPES[random.nextInt(KEY_TYPES.length)] + "," + elemType + ">";
+            }
+        } else if (choice < 8 && !scope.enums.isEmpty()) {
+            return pick(scope.enums);
+        } else if (choice < 12 && !scope.structs.isEmpty()) {
+            return pick(scope.structs);
+        }
+        return PRIMITIVES[random.nextInt(PRIMITIVES.length)];
+    }
+    
+    private String pick(List<String> names) {
+        return names.get(random.nextInt(names.size()));
+    }
+    
+    private String fieldName(int f) {
+        return WORDS[random.nextInt(WORDS.length)] + '_' + WORDS[random.nextInt(WORDS.length)] + '_' + f;
+    }
+    
+    private void writeDoc(Writer out, String indent, String text) throws IOException {
+        if (docDensity > 0 && random.nextDouble() < docDensity) {
+            out.write(indent + "/**\n" + indent + " * " + text + "\n" + indent + " */\n");
+        }
+    }
+    
+    private void writeGenspec(File dir, List<String> models) throws IOException {
+        File tplDir = new File(dir, "tpl");
+        tplDir.mkdirs();
+        writeFile(new File(tplDir, "struct.vm"),
+            "## one class per struct or union\n" +
+            "package ${params.pkg};\n\n" +
+            "#foreach ($doc in $struct.docComments)// $doc\n#end\n" +
+            "public class ${base_name} {\n" +
+            "#foreach ($field in $struct.fields)\n" +
+            "    private ${helpers.util.objType($field.type)} ${helpers.util.lcamel($field.name)};\n" +
+            "#end\n" +
+            "#foreach ($field in $struct.fields)\n\n" +
+            "    public ${helpers.util.objType($field.type)} get${helpers.util.ucamel($field.name)}() {\n" +
+            "        return ${helpers.util.lcamel($field.name)};\n" +
+            "    }\n" +
+            "#end\n" +
+            "}\n");
+        writeFile(new File(tplDir, "union.vm"),
+            "package ${params.pkg};\n\n" +
+            "public class ${base_name} {\n" +
+            "#foreach ($field in $union.fields)\n" +
+            "    public static final int ${helpers.util.uc($helpers.util.decamel($field.name))} = ${field.id};\n" +
+            "#end\n" +
+            "}\n");
+        writeFile(new File(tplDir, "enum.vm"),
+            "package ${params.pkg};\n\n" +
+            "public enum ${base_name} {\n" +
+            "#foreach ($elem in $enum.elements)\n" +
+            "    ${elem.name}(${elem.value}),\n" +
+            "#end\n" +
+            "}\n");
+        writeFile(new File(tplDir, "service.vm"),
+            "package ${params.pkg};\n\n" +
+            "public interface ${base_name} {\n" +
+            "#foreach ($func in $service.functions)\n" +
+            "    ${helpers.util.objType($func.type)} ${func.name}(" +
+            "#foreach ($arg in $func.fields)${helpers.util.objType($arg.type)} ${helpers.util.lcamel($arg.name)}#if($velocityHasNext), #end#end);\n" +
+            "#end\n" +
+            "}\n");
+        writeFile(new File(tplDir, "model.vm"),
+            "model ${model.name}\n" +
+            "#foreach ($struct in $model.structs.values())struct ${struct.name}\n#end\n" +
+            "#foreach ($enum in $model.enums.values())enum ${enum.name}\n#end\n" +
+            "#foreach ($service in $model.services.values())service ${service.name}\n#end\n");
+        
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("// synthetic corpus genspec; seed ").append(seed).append("\n{\n");
+        sb.append("  global: {\n");
+        sb.append("    options: { base_input_dir: \"tpl\", base_output_dir: \"out\", namespace: java, filename_extension: java, },\n");
+        sb.append("  },\n");
+        sb.append("  targets: {\n");
+        for (String model : models) {
+            sb.append("    ").append(model).append(": {\n");
+            sb.append("      options: { model_file: \"idl/").append(model).append(".thrift\", },\n");
+            sb.append("      params: { pkg: \"corpus.").append(model).append("\", },\n");
+            sb.append("      helper_classes: { util: org.runningreds.horatio.generator.GenUtil, },\n");
+            sb.append("      generators: [\n");
+            sb.append("        { template: \"struct.vm\", iterate: struct, },\n");
+            sb.append("        { template: \"union.vm\", iterate: union, },\n");
+            sb.append("        { template: \"enum.vm\", iterate: enum, },\n");
+            sb.append("        { template: \"service.vm\", iterate: service, },\n");
+            sb.append("        { template: \"model.vm\", iterate: none, filename: \"").append(model).append(".txt\", },\n");
+            sb.append("      ],\n");
+            sb.append("    },\n");
+        }
+        sb.append("  },\n}\n");
+        writeFile(new File(dir, ROOT_MODEL + ".gen"), sb.toString());
+    }
+    
+    private static void writeFile(File file, String content) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Names defined by, or visible to, one IDL file.
+     */
+    private static class Scope {
+        final List<String> enums = new ArrayList<String>();
+        final List<String> structs = new ArrayList<String>();
+        final List<String> exceptions = new ArrayList<String>();
+        // how many of the names above were added by addQualified
+        int importedEnums, importedStructs, importedExceptions;
+        
+        void addQualified(Scope other, String model) {
+            for (String name : other.enums) {
+                enums.add(model + '.' + name);
+            }
+            for (String name : other.structs) {
+                structs.add(model + '.' + name);
+            }
+            for (String name : other.exceptions) {
+                exceptions.add(model + '.' + name);
+            }
+            importedEnums = enums.size();
+            importedStructs = structs.size();
+            importedExceptions = exceptions.size();
+        }
+        
+        // a scope of just the names this file defines
+        Scope local() {
+            Scope scope = new Scope();
+            scope.enums.addAll(enums.subList(importedEnums, enums.size()));
+            scope.structs.addAll(structs.subList(importedStructs, structs.size()));
+            scope.exceptions.addAll(exceptions.subList(importedExceptions, exceptions.size()));
+            return scope;
+        }
+    }
+    
+    private class CountingWriter extends BufferedWriter {
+        private final FileOutputStream out;
+        
+        CountingWriter(FileOutputStream out) {
+            super(new OutputStreamWriter(out, UTF8), 64 * 1024);
+            this.out = out;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+            bytes += out.getChannel().size();
+            super.close();
+        }
+    }
+    
+    public static void main(String[] args) {
+        CorpusGenerator generator = new CorpusGenerator();
+        String outputDir = null;
+        try {
+            for (int i = 0, argc = args.length; i < argc; i++) {
+                String opt = args[i];
+                if ("--structs".equals(opt) && ++i < argc) {
+                    generator.setStructs(Integer.parseInt(args[i]));
+                } else if ("--unions".equals(opt) && ++i < argc) {
+                    generator.setUnions(Integer.parseInt(args[i]));
+                } else if ("--enums".equals(opt) && ++i < argc) {
+                    generator.setEnums(Integer.parseInt(args[i]));
+                } else if ("--services".equals(opt) && ++i < argc) {
+                    generator.setServices(Integer.parseInt(args[i]));
+                } else if ("--fields".equals(opt) && ++i < argc) {
+                    generator.setFieldsPerStruct(Integer.parseInt(args[i]));
+                } else if ("--container-depth".equals(opt) && ++i < argc) {
+                    generator.setContainerDepth(Integer.parseInt(args[i]));
+                } else if ("--include-fanout".equals(opt) && ++i < argc) {
+                    generator.setIncludeFanout(Integer.parseInt(args[i]));
+                } else if ("--doc-density".equals(opt) && ++i < argc) {
+                    generator.setDocDensity(Double.parseDouble(args[i]));
+                } else if ("--seed".equals(opt) && ++i < argc) {
+                    generator.setSeed(Long.parseLong(args[i]));
+                } else if (!opt.startsWith("-") && outputDir == null) {
+                    outputDir = opt;
+                } else {
+                    throw new IllegalArgumentException("Invalid or missing argument: " + opt);
+                }
+            }
+            if (outputDir == null) {
+                throw new IllegalArgumentException("No output directory specified");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.err.println("Usage: CorpusGenerator [--structs n] [--unions n] [--enums n] [--services n] [--fields n]\n" +
+                    "    [--container-depth n] [--include-fanout n] [--doc-density 0..1] [--seed n] <output_dir>");
+            System.exit(-1);
+        }
+        try {
+            File root = generator.generate(new File(outputDir));
+            System.out.println("Wrote " + generator.getDefinitions() + " definitions (" + generator.getBytes() +
+                    " bytes of IDL) rooted at " + root.getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+}
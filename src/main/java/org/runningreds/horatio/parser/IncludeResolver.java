@@ -0,0 +1,252 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.Metrics;
+import org.runningreds.horatio.jfr.Events;
+import org.runningreds.horatio.model.ModelSet;
+
+/**
+ * Loads the models included by the models of a {@link ModelSet}, parsing
+ * independent includes in parallel. Shared by all the parsers of one model
+ * set, so that each included model is fetched and parsed exactly once.
+ * <p>
+ * A model waits for all of its includes to be loaded before its body is
+ * parsed, whether it loads them itself or another model already is. As when
+ * includes were parsed one at a time, an include cycle is broken by skipping
+ * the include that closes it: the model that closes the cycle is parsed
+ * without waiting for the other, which is still being parsed.
+ */
+public class IncludeResolver {
+    
+    /**
+     * Parses the model <code>modelName</code> from <code>source</code> into
+     * the model set.
+     */
+    public interface Loader {
+        void load(String modelName, FileRef source) throws Exception;
+    }
+    
+    /**
+     * Thrown when an included model fails to load; the cause is the
+     * loader's exception.
+     */
+    public static class IncludeException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        
+        IncludeException(int index, Throwable cause) {
+            super(cause);
+            this.index = index;
+        }
+        
+        /**
+         * Returns the index, in the include list, of the include that failed.
+         */
+        public int getIndex() {
+            return index;
+        }
+    }
+    
+    private static final ExecutorService LOADERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "horatio-include-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
+    private final ModelSet modelSet;
+    
+    // guarded by this
+    private final Map<String, FutureTask<Void>> loads = new HashMap<String, FutureTask<Void>>();
+    // models being parsed -> the models they are waiting for; guarded by this
+    private final Map<String, Set<String>> waitsFor = new HashMap<String, Set<String>>();
+    
+    public IncludeResolver(ModelSet modelSet) {
+        this.modelSet = modelSet;
+    }
+    
+    /**
+     * Loads the models included by <code>modelName</code>, returning once
+     * all of them are loaded (or skipped to break an include cycle).
+     * @param includeNames the include file names, in the order included
+     */
+    public void resolve(String modelName, List<String> includeNames, Loader loader) throws IncludeException {
+        if (includeNames.isEmpty() || modelSet.getModelPath() == null) {
+            return;
+        }
+        Metrics metrics = Metrics.current();
+        long start = System.nanoTime();
+        Object event = Events.beginInclude();
+        List<FutureTask<Void>> waits = new ArrayList<FutureTask<Void>>(includeNames.size());
+        List<FutureTask<Void>> claimed = new ArrayList<FutureTask<Void>>(includeNames.size());
+        synchronized(this) {
+            Set<String> waiting = new HashSet<String>();
+            for (String includeName : includeNames) {
+                String includeModelName = Parsers.modelNameFor(includeName);
+                FutureTask<Void> load = loads.get(includeModelName);
+                if (includeModelName.equals(modelName)) {
+                    waits.add(null);
+                    continue;
+                } else if (load == null) {
+                    if (modelSet.isModelLoaded(includeModelName)) {
+                        // the root model (necessarily still being parsed), or
+                        // one parsed into the model set before this resolver
+                        waits.add(null);
+                        continue;
+                    }
+                    load = newLoad(includeName, includeModelName, loader, metrics);
+                    claimed.add(load);
+                } else if (!load.isDone() && isWaitingFor(includeModelName, modelName)) {
+                    // waiting would close a cycle
+                    waits.add(null);
+                    continue;
+                }
+                waits.add(load);
+                waiting.add(includeModelName);
+            }
+            waitsFor.put(modelName, waiting);
+        }
+        try {
+            // parse the last claimed include on this thread, the rest in parallel
+            for (int i = 0, limit = claimed.size() - 1; i < limit; i++) {
+                LOADERS.execute(claimed.get(i));
+            }
+            if (!claimed.isEmpty()) {
+                claimed.get(claimed.size() - 1).run();
+            }
+            for (int i = 0, limit = waits.size(); i < limit; i++) {
+                FutureTask<Void> load = waits.get(i);
+                if (load != null) {
+                    try {
+                        load.get();
+                    } catch (ExecutionException e) {
+                        throw new IncludeException(i, e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IncludeException(i, e);
+                    }
+                }
+            }
+        } finally {
+            synchronized(this) {
+                waitsFor.remove(modelName);
+            }
+            metrics.time(Metrics.INCLUDE_RESOLVE, start);
+            if (event != null) {
+                Events.endInclude(event, modelName, includeNames, claimed.size());
+            }
+        }
+    }
+    
+    /**
+     * Loads the model in file <code>fileName</code>, relative to the model
+     * path, unless it is already loaded or being loaded (as another's
+     * include, say), and waits for it. Used to load many root models into
+     * one model set, each include being loaded only once between them.
+     * @throws Exception the loader's exception, if the model failed to load
+     */
+    public void load(String fileName, Loader loader) throws Exception {
+        String modelName = Parsers.modelNameFor(fileName);
+        FutureTask<Void> load;
+        boolean claimed = false;
+        synchronized(this) {
+            load = loads.get(modelName);
+            if (load == null) {
+                if (modelSet.isModelLoaded(modelName)) {
+                    return;
+                }
+                load = newLoad(fileName, modelName, loader, Metrics.current());
+                claimed = true;
+            }
+        }
+        if (claimed) {
+            load.run();
+        }
+        try {
+            load.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw (Error)cause;
+        }
+    }
+    
+    // creates and registers the load of a model; the caller holds the lock
+    private FutureTask<Void> newLoad(final String fileName, final String modelName, final Loader loader,
+            final Metrics metrics) {
+        FutureTask<Void> load = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                Metrics prev = Metrics.setCurrent(metrics);
+                try {
+                    FileRef source = modelSet.getModelPath().getChildRef(fileName);
+                    modelSet.addSource(modelName, source);
+                    Object event = Events.beginParse();
+                    loader.load(modelName, source);
+                    if (event != null) {
+                        Events.endParse(event, modelName, source);
+                    }
+                    metrics.count(Metrics.MODELS_PARSED, 1);
+                    return null;
+                } finally {
+                    Metrics.setCurrent(prev);
+                }
+            }
+        });
+        loads.put(modelName, load);
+        return load;
+    }
+    
+    // whether model <code>from</code> is waiting, directly or indirectly, for model <code>to</code>
+    private boolean isWaitingFor(String from, String to) {
+        Set<String> visited = new HashSet<String>();
+        List<String> pending = new ArrayList<String>();
+        pending.add(from);
+        while (!pending.isEmpty()) {
+            String name = pending.remove(pending.size() - 1);
+            if (name.equals(to)) {
+                return true;
+            }
+            Set<String> next;
+            if (visited.add(name) && (next = waitsFor.get(name)) != null) {
+                pending.addAll(next);
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,249 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.runningreds.horatio.DigestUtil;
+import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.Metrics;
+import org.runningreds.horatio.ParseException;
+import org.runningreds.horatio.model.ThriftModel;
+
+/**
+ * Run-scoped cache of parsed models, so that each distinct Thrift IDL file is
+ * parsed once no matter how many targets and generators reference it.
+ * <p>
+ * Models are keyed by canonical path (or URL) plus a fingerprint of the file
+ * content, and a cached model is used only while every file it includes
+ * still has the content it was parsed from, as {@link ModelStore} does.
+ * Files are re-read on each request (reading is cheap next to parsing), so
+ * an edited file or include is never served stale; URLs are fetched at most
+ * once every {@value #URL_TTL_MILLIS} ms. Concurrent requests for the same
+ * model wait on a single parse. Only the latest version of each model is
+ * kept, so a long-lived cache does not grow as files are edited.
+ * <p>
+ * If constructed with a {@link ModelStore}, models are loaded from and saved
+ * to that persistent cache, so unchanged IDL is not re-parsed across runs.
+ */
+public class ModelCache {
+
+    /** How long fetched URL content is reused before it is fetched again. */
+    public static final long URL_TTL_MILLIS = 30 * 1000L;
+
+    private final ConcurrentMap<String, Future<Entry>> models = new ConcurrentHashMap<String, Future<Entry>>();
+    private final ConcurrentMap<String, Fetched> urlContent = new ConcurrentHashMap<String, Fetched>();
+    private final ConcurrentMap<String, String> currentKeys = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, File> files = new ConcurrentHashMap<String, File>();
+    private final ModelStore store;
+
+    public ModelCache() {
+        this((ModelStore)null);
+    }
+
+    public ModelCache(ModelStore store) {
+        this.store = store;
+    }
+
+    public ModelStore getStore() {
+        return store;
+    }
+
+    public ThriftModel getModel(final FileRef modelRef) throws ParseException {
+        String name = modelRef.getCanonicalName();
+        final ByteBuffer content;
+        try {
+            content = readContent(modelRef);
+        } catch (Exception e) {
+            throw new ParseException("Error reading Thrift IDL file " + modelRef, e);
+        }
+        String key = name + '#' + DigestUtil.digest(content);
+        for (;;) {
+            Future<Entry> future = models.get(key);
+            boolean parsed = false;
+            if (future == null) {
+                FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+                    public Entry call() throws Exception {
+                        return new Entry(Parsers.parseThrift(modelRef, content, store));
+                    }
+                });
+                if ((future = models.putIfAbsent(key, task)) == null) {
+                    future = task;
+                    String prevKey = currentKeys.put(name, key);
+                    if (prevKey != null && !prevKey.equals(key)) {
+                        models.remove(prevKey);
+                    }
+                    if (modelRef.isFile()) {
+                        files.put(name, modelRef.getFile().getAbsoluteFile());
+                    }
+                    task.run();
+                    parsed = true;
+                }
+            }
+            Entry entry;
+            try {
+                entry = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ParseException("Interrupted waiting for Thrift IDL file " + modelRef, e);
+            } catch (ExecutionException e) {
+                // failures are cached too, so every generator sees the same error
+                Throwable cause = e.getCause();
+                if (cause instanceof ParseException) {
+                    throw (ParseException)cause;
+                }
+                throw new ParseException("Error parsing Thrift IDL file " + modelRef, cause);
+            }
+            if (parsed) {
+                return entry.model;
+            }
+            if (isCurrent(entry)) {
+                Metrics.current().count(Metrics.MODELS_CACHED, 1);
+                return entry.model;
+            }
+            // an include has changed since the model was parsed
+            models.remove(key, future);
+        }
+    }
+
+    public int size() {
+        return models.size();
+    }
+
+    /**
+     * Returns the model files this cache has read, including the files
+     * those models include, e.g. to watch them for changes.
+     */
+    public Set<File> getFiles() {
+        Set<File> result = new HashSet<File>(files.values());
+        for (Future<Entry> future : models.values()) {
+            if (future.isDone()) {
+                try {
+                    for (FileRef includeRef : future.get().includes) {
+                        if (includeRef.isFile()) {
+                            result.add(includeRef.getFile().getAbsoluteFile());
+                        }
+                    }
+                } catch (Exception e) {
+                    // failed to parse; only its own file is known
+                }
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Forgets models that failed to parse, so that the next request for one
+     * parses it again even if its own file is unchanged, e.g. once an
+     * include it was missing has been added.
+     */
+    public void evictFailures() {
+        for (Map.Entry<String, Future<Entry>> e : models.entrySet()) {
+            Future<Entry> future = e.getValue();
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (Exception ex) {
+                    models.remove(e.getKey(), future);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        models.clear();
+        urlContent.clear();
+        currentKeys.clear();
+        files.clear();
+    }
+
+    private boolean isCurrent(Entry entry) {
+        for (int i = 0; i < entry.includes.length; i++) {
+            try {
+                if (!entry.digests[i].equals(DigestUtil.digest(readContent(entry.includes[i])))) {
+                    return false;
+                }
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer readContent(FileRef ref) {
+        if (ref.isFile()) {
+            return ref.readBuffer();
+        }
+        String name = ref.getCanonicalName();
+        long now = System.currentTimeMillis();
+        Fetched fetched = urlContent.get(name);
+        if (fetched == null || now - fetched.time > URL_TTL_MILLIS) {
+            fetched = new Fetched(ref.readBuffer(), now);
+            urlContent.put(name, fetched);
+        }
+        return fetched.content;
+    }
+
+    /**
+     * A parsed model, and the digests of the files it includes as they were
+     * when it was parsed.
+     */
+    private class Entry {
+        final ThriftModel model;
+        final FileRef[] includes;
+        final String[] digests;
+
+        Entry(ThriftModel model) {
+            this.model = model;
+            Map<String, FileRef> sources = model.getModelSet().getSources();
+            sources.remove(model.getName());
+            includes = sources.values().toArray(new FileRef[sources.size()]);
+            digests = new String[includes.length];
+            for (int i = 0; i < includes.length; i++) {
+                try {
+                    digests[i] = DigestUtil.digest(readContent(includes[i]));
+                } catch (Exception e) {
+                    // include vanished since it was parsed; never current
+                    digests[i] = "";
+                }
+            }
+        }
+    }
+
+    private static class Fetched {
+        final ByteBuffer content;
+        final long time;
+
+        Fetched(ByteBuffer content, long time) {
+            this.content = content;
+            this.time = time;
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.parser;
+
+import org.runningreds.horatio.model.ConstDef;
+import org.runningreds.horatio.model.EnumType;
+import org.runningreds.horatio.model.ExceptionType;
+import org.runningreds.horatio.model.FieldDef;
+import org.runningreds.horatio.model.FunctionDef;
+import org.runningreds.horatio.model.NamespaceDef;
+import org.runningreds.horatio.model.ServiceDef;
+import org.runningreds.horatio.model.StructType;
+import org.runningreds.horatio.model.Type;
+
+/**
+ * Receives the definitions of a Thrift IDL file as {@link Parsers#scanThrift}
+ * parses them, in the order they appear. Each definition is reported once it
+ * is complete, after the members it contains; the parser keeps no reference
+ * to it once the call returns. The methods here do nothing, so a listener
+ * need only override those it cares about.
+ * <p>
+ * Structs, exceptions and services referred to by later definitions are
+ * known to the parser only by name, so field types and service ancestors
+ * seen here may have no fields or functions of their own.
+ */
+public abstract class ModelListener {
+    
+    public void onInclude(String fileName) {}
+    
+    public void onNamespace(NamespaceDef def) {}
+    
+    public void onConst(ConstDef def) {}
+    
+    public void onTypedef(String name, Type type) {}
+    
+    public void onEnumElem(EnumType def, EnumType.Elem elem) {}
+    
+    public void onEnum(EnumType def) {}
+    
+    /**
+     * @param owner the {@link StructType} or {@link ExceptionType} being parsed
+     */
+    public void onField(Type owner, FieldDef field) {}
+    
+    public void onStruct(StructType def) {}
+    
+    public void onException(ExceptionType def) {}
+    
+    public void onFunction(ServiceDef service, FunctionDef func) {}
+    
+    public void onService(ServiceDef def) {}
+}
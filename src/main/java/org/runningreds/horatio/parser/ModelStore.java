@@ -0,0 +1,163 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import static org.runningreds.horatio.GenspecUtil.printWarning;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.runningreds.horatio.DigestUtil;
+import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.GenspecException;
+import org.runningreds.horatio.model.ModelSet;
+import org.runningreds.horatio.model.ThriftModel;
+
+/**
+ * Persistent, on-disk cache of fully resolved models.
+ * <p>
+ * Each root IDL file gets one entry holding the serialized {@link ModelSet}
+ * (the root model and everything it includes) together with a digest of the
+ * root and of every transitively included file. An entry is used only if all
+ * of those digests still match the current file content; otherwise the model
+ * is re-parsed and the entry rewritten.
+ */
+public class ModelStore {
+
+    private static final int MAGIC = 0x48544d53; // "HTMS"
+    // bump whenever the serialized form of the model classes changes
+    private static final int FORMAT_VERSION = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+
+    public ModelStore(File dir) throws GenspecException {
+        dir.mkdirs();
+        if (!dir.isDirectory()) {
+            throw new GenspecException("Invalid model cache directory " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Returns the cached model for <code>modelRef</code>, or null if there is
+     * none or it is out of date with respect to <code>content</code> or any
+     * included file.
+     */
+    public ThriftModel load(FileRef modelRef, ByteBuffer content) {
+        File entry = entryFile(modelRef);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(entry), BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION ||
+                        !modelRef.getCanonicalName().equals(in.readUTF()) ||
+                        !DigestUtil.digest(content).equals(in.readUTF())) {
+                    return null;
+                }
+                for (int i = 0, n = in.readInt(); i < n; i++) {
+                    FileRef includeRef = (FileRef)in.readObject();
+                    if (!in.readUTF().equals(digestOf(includeRef))) {
+                        return null;
+                    }
+                }
+                String modelName = in.readUTF();
+                ModelSet modelSet = (ModelSet)in.readObject();
+                return modelSet.getModel(modelName);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            printWarning("Ignoring unreadable model cache entry " + entry.getAbsolutePath() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves <code>model</code>, parsed from <code>content</code>, along with
+     * the models it includes. Failures are reported as warnings, since the
+     * cache is only an optimization.
+     */
+    public void save(FileRef modelRef, ByteBuffer content, ThriftModel model) {
+        File entry = entryFile(modelRef);
+        File tmp = null;
+        try {
+            ModelSet modelSet = model.getModelSet();
+            Map<String, FileRef> includes = modelSet.getSources();
+            includes.remove(model.getName());
+            tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(modelRef.getCanonicalName());
+                out.writeUTF(DigestUtil.digest(content));
+                out.writeInt(includes.size());
+                for (FileRef includeRef : includes.values()) {
+                    String digest = digestOf(includeRef);
+                    if (digest == null) {
+                        // include vanished since it was parsed; don't cache
+                        return;
+                    }
+                    out.writeObject(includeRef);
+                    out.writeUTF(digest);
+                }
+                out.writeUTF(model.getName());
+                out.writeObject(modelSet);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+        } catch (Exception e) {
+            printWarning("Unable to write model cache entry " + entry.getAbsolutePath() + ": " + e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private File entryFile(FileRef modelRef) {
+        return new File(dir, DigestUtil.digest(modelRef.getCanonicalName()) + ".model");
+    }
+
+    private static String digestOf(FileRef ref) {
+        try {
+            return DigestUtil.digest(ref.readBuffer());
+        } catch (GenspecException e) {
+            return null;
+        }
+    }
+
+}
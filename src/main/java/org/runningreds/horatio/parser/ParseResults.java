@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.runningreds.horatio.ParseException;
+import org.runningreds.horatio.model.ThriftModel;
+
+/**
+ * The outcome of {@link Parsers#parseAll}: the model parsed for each root
+ * file, or the error that kept it from being parsed, in the order the roots
+ * were given.
+ */
+public class ParseResults {
+    
+    private final Map<Path, ThriftModel> models = new LinkedHashMap<Path, ThriftModel>();
+    private final Map<Path, ParseException> errors = new LinkedHashMap<Path, ParseException>();
+    
+    ParseResults() {}
+    
+    void addModel(Path root, ThriftModel model) {
+        models.put(root, model);
+    }
+    
+    void addError(Path root, ParseException error) {
+        errors.put(root, error);
+    }
+    
+    /**
+     * Returns the models parsed, by root file.
+     */
+    public Map<Path, ThriftModel> getModels() {
+        return Collections.unmodifiableMap(models);
+    }
+    
+    /**
+     * Returns the model parsed from <code>root</code>, or null if it failed
+     * to parse.
+     */
+    public ThriftModel getModel(Path root) {
+        return models.get(root);
+    }
+    
+    /**
+     * Returns the errors of the roots that failed to parse, by root file. An
+     * include that fails fails every root that includes it.
+     */
+    public Map<Path, ParseException> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+    
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+}
@@ -20,6 +20,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -185,7 +186,8 @@ public class ParseUtil {
                 if (line.endsWith("*/")) {
                     line = line.substring(0, line.length() - 2);
                 }
-                list.add(line);
+                // boilerplate lines recur throughout a model
+                list.add(line.intern());
             }
         } catch(IOException e) {
             // won't happen
@@ -198,6 +200,13 @@ public class ParseUtil {
         while (!list.isEmpty() && list.get(list.size() - 1).trim().length() == 0) {
             list.remove(list.size() - 1);
         }
-        return list.isEmpty() ? null : list;
+        if (list.isEmpty()) {
+            return null;
+        }
+        if (list.size() == 1) {
+            return Collections.singletonList(list.get(0));
+        }
+        list.trimToSize();
+        return list;
     }
 }
@@ -17,16 +17,39 @@
 package org.runningreds.horatio.parser;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.GenspecException;
+import org.runningreds.horatio.HoratioException;
+import org.runningreds.horatio.Metrics;
 import org.runningreds.horatio.ParseException;
+import org.runningreds.horatio.jfr.Events;
 import org.runningreds.horatio.model.ModelSet;
 import org.runningreds.horatio.model.ThriftModel;
 
@@ -39,9 +62,32 @@ import org.runningreds.horatio.model.ThriftModel;
 public class Parsers {
     private Parsers() {}
     
+    /**
+     * Entry points to the parsers, looked up once. This ugliness brought to
+     * you by dependency on generated code that Eclipse/Maven just can't cope
+     * with.
+     */
+    private static class Factories {
+        static final MethodHandle GENSPEC = find("org.runningreds.horatio.parser.genspec.GenspecParser", "parse",
+                MethodType.methodType(Map.class, String.class, Reader.class));
+        static final MethodHandle THRIFT = find("org.runningreds.horatio.parser.thrift.ThriftParser", "parse",
+                MethodType.methodType(ThriftModel.class, ModelSet.class, String.class, ByteBuffer.class, IncludeResolver.class));
+        static final MethodHandle THRIFT_SCAN = find("org.runningreds.horatio.parser.thrift.ThriftParser", "scan",
+                MethodType.methodType(void.class, ModelSet.class, String.class, ByteBuffer.class, ModelListener.class));
+        
+        private static MethodHandle find(String className, String name, MethodType type) {
+            try {
+                return MethodHandles.publicLookup().findStatic(Class.forName(className), name, type);
+            } catch (Exception e) {
+                throw new HoratioException("Unable to load parser " + className, e);
+            }
+        }
+    }
+    
     public static Map<String, Object> parseGenspec(File genspecFile) throws ParseException {
         try {
-            return parseGenspec(genspecFile.getName(), new FileInputStream(genspecFile));
+            Reader reader = new ByteBufferReader(new FileRef(genspecFile).readBuffer(), Charset.defaultCharset());
+            return parseGenspec(genspecFile.getName(), reader);
         } catch (Exception e) {
             throw new ParseException("Error parsing genspec file " + genspecFile.getAbsolutePath(), e);
         }
@@ -56,18 +102,15 @@ public class Parsers {
         }
     }
     
-    @SuppressWarnings("unchecked")
     public static Map<String, Object> parseGenspec(String name, InputStream in) throws ParseException {
+        return parseGenspec(name, new InputStreamReader(new BufferedInputStream(in)));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseGenspec(String name, Reader reader) throws ParseException {
         try {
-            // This ugliness brought to you by dependency on generated code that
-            // Eclipse/Maven just can't cope with.
-            BufferedInputStream bufferedIn = new BufferedInputStream(in);
-            Class<?> c = Class.forName("org.runningreds.horatio.parser.genspec.GenspecParser");
-            Constructor<?> ctor = c.getConstructor(String.class, InputStream.class);
-            Object parser = ctor.newInstance(name, bufferedIn);
-            Method m = c.getMethod("Genspec");
-            return (Map<String, Object>)m.invoke(parser);
-        } catch (Exception e) {
+            return (Map<String, Object>)Factories.GENSPEC.invokeExact(name, reader);
+        } catch (Throwable e) {
             throw new ParseException("Error parsing genspec file ", e);
         }
     }
@@ -78,7 +121,8 @@ public class Parsers {
             String modelName = filename.endsWith(".thrift") ? filename.substring(0, filename.length() - 7) : filename;
             ModelSet modelSet = new ModelSet();
             modelSet.setModelPath(new FileRef(thriftIDLFile.getParentFile()));
-            return parseThrift(modelName, modelSet, new FileInputStream(thriftIDLFile));
+            modelSet.addSource(modelName, new FileRef(thriftIDLFile));
+            return sealed(parseThrift(modelName, modelSet, new FileRef(thriftIDLFile).readBuffer()));
         } catch (Exception e) {
             throw new ParseException("Error parsing Thrift IDL file " + thriftIDLFile.getAbsolutePath(), e);
         }
@@ -91,25 +135,251 @@ public class Parsers {
             ModelSet modelSet = new ModelSet();
             String urlString = thriftURL.toString();
             modelSet.setModelPath(new FileRef(new URL(urlString.substring(0, urlString.lastIndexOf('/')))));
-            return parseThrift(modelName, modelSet, thriftURL.openStream());
+            modelSet.addSource(modelName, new FileRef(thriftURL));
+            return sealed(parseThrift(modelName, modelSet, thriftURL.openStream()));
         } catch (Exception e) {
             throw new ParseException("Error parsing Thrift IDL file " + thriftURL, e);
         }
     }
 
-    public static ThriftModel parseThrift(String modelName, ModelSet modelSet, InputStream in)  throws ParseException {
+    public static ThriftModel parseThrift(FileRef modelRef) throws ParseException {
+        if (modelRef.isFile()) {
+            return parseThrift(modelRef.getFile());
+        } else {
+            return parseThrift(modelRef.getUrl());
+        }
+    }
+
+    /**
+     * Parses a model whose content has already been opened (or read), resolving
+     * includes relative to the directory of <code>modelRef</code>.
+     */
+    public static ThriftModel parseThrift(FileRef modelRef, InputStream in) throws ParseException {
         try {
-            // This ugliness brought to you by dependency on generated code that
-            // Eclipse/Maven just can't cope with.
-            BufferedInputStream bufferedIn = new BufferedInputStream(in);
-            Class<?> c = Class.forName("org.runningreds.horatio.parser.thrift.ThriftParser");
-            Constructor<?> ctor = c.getConstructor(ModelSet.class, String.class, InputStream.class);
-            Object parser = ctor.newInstance(modelSet, modelName, bufferedIn);
-            Method m = c.getMethod("Model");
-            return (ThriftModel)m.invoke(parser);
+            return parseThrift(modelRef, ByteBuffer.wrap(readFully(in)));
+        } catch (IOException e) {
+            throw new ParseException("Error reading Thrift IDL file " + modelRef, e);
+        }
+    }
+
+    /**
+     * Parses a model from the remaining content of <code>content</code>,
+     * resolving includes relative to the directory of <code>modelRef</code>.
+     */
+    public static ThriftModel parseThrift(FileRef modelRef, ByteBuffer content) throws ParseException {
+        try {
+            String modelName = modelNameFor(modelRef.getName());
+            ModelSet modelSet = new ModelSet();
+            modelSet.setModelPath(modelRef.getParentRef());
+            modelSet.addSource(modelName, modelRef);
+            return sealed(parseThrift(modelName, modelSet, content));
         } catch (Exception e) {
+            throw new ParseException("Error parsing Thrift IDL file " + modelRef, e);
+        }
+    }
+
+    /**
+     * Loads a model from <code>store</code> if its cached copy is still
+     * current, otherwise parses <code>content</code> and saves the result
+     * to the store.
+     * @param store on-disk model cache; may be null
+     */
+    public static ThriftModel parseThrift(FileRef modelRef, ByteBuffer content, ModelStore store) throws ParseException {
+        Metrics.current().count(Metrics.MODEL_BYTES, content.remaining());
+        if (store != null) {
+            ThriftModel model = store.load(modelRef, content);
+            if (model != null) {
+                Metrics.current().count(Metrics.MODELS_STORED, 1);
+                return model;
+            }
+        }
+        ThriftModel model = parseThrift(modelRef, content);
+        if (store != null) {
+            store.save(modelRef, content, model);
+        }
+        return model;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    // models parsed into a model set of their own are complete once parsed
+    private static ThriftModel sealed(ThriftModel model) {
+        model.getModelSet().seal();
+        return model;
+    }
+
+    public static String modelNameFor(String filename) {
+        return filename.endsWith(".thrift") ? filename.substring(0, filename.length() - 7) : filename;
+    }
+
+    public static ThriftModel parseThrift(String modelName, ModelSet modelSet, InputStream in)  throws ParseException {
+        try {
+            return parseThrift(modelName, modelSet, ByteBuffer.wrap(readFully(in)));
+        } catch (IOException e) {
+            throw new ParseException("Error reading Thrift IDL file " + modelName, e);
+        }
+    }
+
+    /**
+     * Parses the remaining content of <code>input</code>, which is read in
+     * place by the hand-written {@link ThriftLexer} where the platform
+     * encoding allows.
+     */
+    public static ThriftModel parseThrift(String modelName, ModelSet modelSet, ByteBuffer input)  throws ParseException {
+        Metrics metrics = Metrics.current();
+        long start = System.nanoTime();
+        Object event = Events.beginParse();
+        try {
+            ThriftModel model = (ThriftModel)Factories.THRIFT.invokeExact(modelSet, modelName, input, (IncludeResolver)null);
+            metrics.count(Metrics.MODELS_PARSED, 1);
+            return model;
+        } catch (Throwable e) {
             throw new ParseException("Error parsing Thrift IDL file " + modelName, e);
+        } finally {
+            metrics.time(Metrics.MODEL_PARSE, start);
+            if (event != null) {
+                Events.endParse(event, modelName, modelSet.getSources().get(modelName));
+            }
         }
     }
 
+    /**
+     * Reports the definitions of a Thrift IDL file to <code>listener</code>
+     * as they are parsed, without building a model of the file. Memory use
+     * grows with the number of named definitions, not with their content.
+     * @see ModelListener
+     */
+    public static void scanThrift(FileRef modelRef, ModelListener listener) throws ParseException {
+        ByteBuffer content;
+        try {
+            content = modelRef.readBuffer();
+        } catch (GenspecException e) {
+            throw new ParseException("Error reading Thrift IDL file " + modelRef, e);
+        }
+        scanThrift(modelRef, content, listener);
+    }
+
+    /**
+     * Reports the definitions in the remaining content of <code>content</code>
+     * to <code>listener</code>, resolving includes relative to the directory
+     * of <code>modelRef</code>.
+     */
+    public static void scanThrift(FileRef modelRef, ByteBuffer content, ModelListener listener) throws ParseException {
+        String modelName = modelNameFor(modelRef.getName());
+        ModelSet modelSet = new ModelSet();
+        modelSet.setModelPath(modelRef.getParentRef());
+        modelSet.addSource(modelName, modelRef);
+        try {
+            Factories.THRIFT_SCAN.invokeExact(modelSet, modelName, content, listener);
+        } catch (Throwable e) {
+            throw new ParseException("Error parsing Thrift IDL file " + modelRef, e);
+        }
+    }
+
+    /**
+     * Parses many root IDL files concurrently, on as many threads as there
+     * are processors.
+     * @see #parseAll(Collection, int)
+     */
+    public static ParseResults parseAll(Collection<Path> roots) throws ParseException {
+        return parseAll(roots, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses many root IDL files concurrently, each included model being
+     * parsed only once however many roots include it. As includes resolve
+     * relative to the directory of the root, the roots in each directory
+     * share one model set, which is sealed once all are parsed. A root that
+     * is also included by another is likewise parsed once.
+     * @param parallelism the maximum number of roots parsed at a time
+     *        (includes are loaded in parallel besides)
+     * @return the model or error of each root; a failed root does not keep
+     *         the others from being parsed
+     */
+    public static ParseResults parseAll(Collection<Path> roots, int parallelism) throws ParseException {
+        Map<Path, IncludeResolver> resolvers = new HashMap<Path, IncludeResolver>();
+        Map<Path, ModelSet> modelSets = new HashMap<Path, ModelSet>();
+        List<Future<ThriftModel>> futures = new ArrayList<Future<ThriftModel>>(roots.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, roots.size())),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "horatio-parse-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            Metrics metrics = Metrics.current();
+            for (Path root : roots) {
+                Path file = root.toAbsolutePath().normalize();
+                Path dir = file.getParent();
+                IncludeResolver resolver = resolvers.get(dir);
+                if (resolver == null) {
+                    ModelSet modelSet = new ModelSet();
+                    modelSet.setModelPath(new FileRef(dir.toFile()));
+                    resolver = new IncludeResolver(modelSet);
+                    resolvers.put(dir, resolver);
+                    modelSets.put(dir, modelSet);
+                }
+                futures.add(executor.submit(rootParse(file.getFileName().toString(), modelSets.get(dir), resolver, metrics)));
+            }
+            ParseResults results = new ParseResults();
+            Iterator<Path> rootIter = roots.iterator();
+            for (Future<ThriftModel> future : futures) {
+                Path root = rootIter.next();
+                try {
+                    results.addModel(root, future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    results.addError(root, cause instanceof ParseException ? (ParseException)cause
+                            : new ParseException("Error parsing Thrift IDL file " + root, cause));
+                }
+            }
+            for (ModelSet modelSet : modelSets.values()) {
+                modelSet.seal();
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParseException("Interrupted parsing Thrift IDL files", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<ThriftModel> rootParse(final String fileName, final ModelSet modelSet,
+            final IncludeResolver resolver, final Metrics metrics) {
+        return new Callable<ThriftModel>() {
+            public ThriftModel call() throws Exception {
+                Metrics prev = Metrics.setCurrent(metrics);
+                try {
+                    resolver.load(fileName, new IncludeResolver.Loader() {
+                        public void load(String modelName, FileRef source) throws Exception {
+                            try {
+                                Factories.THRIFT.invoke(modelSet, modelName, source.readBuffer(), resolver);
+                            } catch (Throwable e) {
+                                throw new ParseException("Error parsing Thrift IDL file " + source, e);
+                            }
+                        }
+                    });
+                    return modelSet.getModel(modelNameFor(fileName));
+                } finally {
+                    Metrics.setCurrent(prev);
+                }
+            }
+        };
+    }
+
 }
@@ -0,0 +1,1033 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.runningreds.horatio.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hand-written Thrift IDL scanner, a faster alternative to the token manager
+ * JavaCC generates for <code>ThriftParser</code>. It scans the encoded bytes
+ * of a whole file in place, from a heap or memory-mapped buffer, producing
+ * tokens as offsets; Strings are only created for identifiers (interned, as
+ * the same names recur throughout a file and across models) and literals. Keyword
+ * and operator images are shared constants, and comments other than doc
+ * (<code>/**</code>) comments get just their opening delimiter as image,
+ * as the parser never looks further into them.
+ * <p>
+ * Otherwise tokens, their positions (with tabs counted to the next multiple
+ * of 8, as JavaCC does) and lexical errors are exactly those of the
+ * generated token manager reading the same bytes through a Reader in the
+ * same charset. That includes a quirk of JavaCC's non-Unicode scanners: a
+ * character beyond ASCII is only accepted in string and char literals if the
+ * low byte of its (UTF-16) code is 0x80 or above. Token kinds are the
+ * parser's own, looked up by name and image in its <code>tokenImage</code>
+ * table by a {@link Vocabulary}.
+ * <p>
+ * Only UTF-8 and single-byte, ASCII-compatible charsets can be scanned
+ * byte-wise; {@link #create} returns null for others, and for malformed
+ * UTF-8 (which a Reader would silently replace), so that the caller can
+ * fall back to the generated token manager.
+ */
+public class ThriftLexer {
+    
+    /**
+     * Whether parsers should use this lexer where they can; it is turned off
+     * with <code>-Dhoratio.lexer=javacc</code>.
+     */
+    public static final boolean ENABLED = !"javacc".equals(System.getProperty("horatio.lexer"));
+    
+    /** Returned by {@link #next()} on a lexical error. */
+    public static final int ERROR = -1;
+    
+    // JavaCC lexical states, reported with errors
+    private static final int STATE_DEFAULT = 0;
+    private static final int STATE_SINGLE_LINE_COMMENT = 1;
+    private static final int STATE_MULTI_LINE_COMMENT = 2;
+    
+    private static final int TAB_SIZE = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    
+    /**
+     * The token kinds and literal images of a parser, as given by its
+     * generated <code>tokenImage</code> table. Immutable, and so can be
+     * shared by all lexers for the parser.
+     */
+    public static class Vocabulary {
+        final int eof;
+        final int singleLineComment;
+        final int multiLineComment;
+        final int intVal;
+        final int floatVal;
+        final int charVal;
+        final int stringVal;
+        final int identifier;
+        // keywords, by hash of their bytes (open addressing)
+        final Literal[] keywords;
+        final int maxKeywordLength;
+        // operator and separator literals, by first byte, longest first
+        final Literal[][] operators = new Literal[128][];
+        
+        public Vocabulary(String[] tokenImage) {
+            int eof = -1, singleLineComment = -1, multiLineComment = -1, intVal = -1, floatVal = -1;
+            int charVal = -1, stringVal = -1, identifier = -1, oneway = -1, reserved = -1;
+            List<Literal> words = new ArrayList<Literal>();
+            List<Literal> symbols = new ArrayList<Literal>();
+            for (int kind = 0; kind < tokenImage.length; kind++) {
+                String image = tokenImage[kind];
+                if (image.startsWith("<") && image.endsWith(">")) {
+                    String name = image.substring(1, image.length() - 1);
+                    if ("EOF".equals(name)) {
+                        eof = kind;
+                    } else if ("SINGLE_LINE_COMMENT".equals(name)) {
+                        singleLineComment = kind;
+                    } else if ("INT_VAL".equals(name)) {
+                        intVal = kind;
+                    } else if ("FLOAT_VAL".equals(name)) {
+                        floatVal = kind;
+                    } else if ("CHAR_VAL".equals(name)) {
+                        charVal = kind;
+                    } else if ("STRING_VAL".equals(name)) {
+                        stringVal = kind;
+                    } else if ("IDENTIFIER".equals(name)) {
+                        identifier = kind;
+                    } else if ("ONEWAY".equals(name)) {
+                        oneway = kind;
+                    } else if ("RESERVED".equals(name)) {
+                        reserved = kind;
+                    }
+                } else if (image.length() > 2 && image.startsWith("\"") && image.endsWith("\"")) {
+                    String literal = unescape(image.substring(1, image.length() - 1));
+                    if ("*/".equals(literal)) {
+                        multiLineComment = kind;
+                    } else if (literal.trim().length() == 0 || "//".equals(literal) ||
+                            "#".equals(literal) || "/*".equals(literal)) {
+                        // white space, and comment openers
+                        continue;
+                    } else if (isIdentifierStart(literal.charAt(0))) {
+                        words.add(new Literal(kind, literal));
+                    } else {
+                        symbols.add(new Literal(kind, literal));
+                    }
+                }
+            }
+            if (eof < 0 || singleLineComment < 0 || multiLineComment < 0 || intVal < 0 || floatVal < 0 ||
+                    charVal < 0 || stringVal < 0 || identifier < 0 || oneway < 0 || reserved < 0) {
+                throw new IllegalArgumentException("Not a Thrift IDL token image table");
+            }
+            // token kinds whose regular expression is a choice of words
+            words.add(new Literal(oneway, "oneway"));
+            words.add(new Literal(oneway, "async"));
+            words.add(new Literal(reserved, "foo"));
+            words.add(new Literal(reserved, "bar"));
+            
+            this.eof = eof;
+            this.singleLineComment = singleLineComment;
+            this.multiLineComment = multiLineComment;
+            this.intVal = intVal;
+            this.floatVal = floatVal;
+            this.charVal = charVal;
+            this.stringVal = stringVal;
+            this.identifier = identifier;
+            
+            int size = Integer.highestOneBit(words.size() * 4);
+            int maxLength = 0;
+            keywords = new Literal[size];
+            for (Literal word : words) {
+                maxLength = Math.max(maxLength, word.bytes.length);
+                int i = word.hash & (size - 1);
+                while (keywords[i] != null) {
+                    i = (i + 1) & (size - 1);
+                }
+                keywords[i] = word;
+            }
+            maxKeywordLength = maxLength;
+            Collections.sort(symbols, new Comparator<Literal>() {
+                public int compare(Literal a, Literal b) {
+                    // longest match first; for equal lengths, the grammar's order
+                    return a.bytes.length != b.bytes.length ? b.bytes.length - a.bytes.length : a.kind - b.kind;
+                }
+            });
+            for (Literal symbol : symbols) {
+                int first = symbol.bytes[0];
+                Literal[] prev = operators[first];
+                Literal[] next = prev == null ? new Literal[1] : Arrays.copyOf(prev, prev.length + 1);
+                next[next.length - 1] = symbol;
+                operators[first] = next;
+            }
+        }
+        
+        Literal keyword(ByteBuffer in, int start, int end, int hash) {
+            if (end - start > maxKeywordLength) {
+                return null;
+            }
+            int mask = keywords.length - 1;
+            for (int i = hash & mask; keywords[i] != null; i = (i + 1) & mask) {
+                Literal word = keywords[i];
+                if (word.hash == hash && word.matches(in, start, end)) {
+                    return word;
+                }
+            }
+            return null;
+        }
+        
+        private static String unescape(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < s.length()) {
+                    switch (c = s.charAt(++i)) {
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'f': c = '\f'; break;
+                    case 'b': c = '\b'; break;
+                    default: break;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+    }
+    
+    static class Literal {
+        final int kind;
+        final String image;
+        final byte[] bytes;
+        final int hash;
+        
+        Literal(int kind, String image) {
+            this.kind = kind;
+            this.image = image;
+            this.bytes = image.getBytes(LATIN1);
+            this.hash = hash(bytes);
+        }
+        
+        boolean matches(ByteBuffer in, int start, int end) {
+            if (end - start != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (in.get(start + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        static int hash(byte[] bytes) {
+            int h = 0;
+            for (byte b : bytes) {
+                h = 31 * h + b;
+            }
+            return mix(h);
+        }
+    }
+    
+    private final ByteBuffer in;
+    private final int limit;
+    private final Charset charset;
+    private final boolean utf8;
+    private final Vocabulary vocabulary;
+    // for single-byte charsets, which of bytes 0x80-0xff JavaCC accepts
+    private final boolean[] accepted;
+    
+    // scan position
+    private int pos;
+    
+    // current token
+    private int kind;
+    private int start;
+    private int end;
+    private String image;
+    private boolean special;
+    private int beginLine, beginColumn, endLine, endColumn;
+    
+    // line and column of the character before offset cursor, as JavaCC's
+    // SimpleCharStream would have them
+    private int cursor;
+    private int line = 1;
+    private int column = 0;
+    private boolean prevCharIsCR;
+    private boolean prevCharIsLF;
+    // the low surrogate of the supplementary character at cursor - 1 is
+    // still to be counted
+    private boolean pendingLowSurrogate;
+    
+    // identifiers seen so far, by hash of their bytes (open addressing)
+    private String[] names = new String[256];
+    private int[] nameHashes = new int[256];
+    private int nameCount;
+    
+    // lexical error
+    private boolean errorAtEof;
+    private int errorState;
+    private int errorLine;
+    private int errorColumn;
+    private String errorAfter;
+    private char errorChar;
+    
+    private ThriftLexer(ByteBuffer in, Charset charset, Vocabulary vocabulary) {
+        this.in = in;
+        this.pos = in.position();
+        this.cursor = pos;
+        this.limit = in.limit();
+        this.charset = charset;
+        this.utf8 = UTF8.equals(charset);
+        this.vocabulary = vocabulary;
+        this.accepted = utf8 ? null : acceptedBytes(charset);
+    }
+    
+    /**
+     * Returns a lexer for the remaining bytes of <code>in</code>, encoded
+     * in <code>charset</code>, or null if they cannot be scanned byte-wise.
+     */
+    public static ThriftLexer create(ByteBuffer in, Charset charset, Vocabulary vocabulary) {
+        if (!isSupported(charset)) {
+            return null;
+        }
+        if (UTF8.equals(charset) && !isWellFormedUtf8(in)) {
+            return null;
+        }
+        return new ThriftLexer(in, charset, vocabulary);
+    }
+    
+    /**
+     * Whether text in <code>charset</code> can be scanned byte-wise: it is
+     * either UTF-8 or a single-byte charset that agrees with ASCII.
+     */
+    public static boolean isSupported(Charset charset) {
+        if (UTF8.equals(charset)) {
+            return true;
+        }
+        try {
+            if (charset.newEncoder().maxBytesPerChar() != 1.0f) {
+                return false;
+            }
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte)i;
+            }
+            String chars = new String(bytes, charset);
+            if (chars.length() != 256 || !chars.substring(0, 128).equals(new String(bytes, 0, 128, LATIN1))) {
+                return false;
+            }
+            for (int i = 128; i < 256; i++) {
+                if (chars.charAt(i) < 128) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            // a decode-only charset
+            return false;
+        }
+    }
+    
+    private static boolean[] acceptedBytes(Charset charset) {
+        boolean[] accepted = new boolean[128];
+        for (int i = 0; i < accepted.length; i++) {
+            char c = new String(new byte[] { (byte)(i + 128) }, charset).charAt(0);
+            accepted[i] = (c & 0xff) >= 0x80;
+        }
+        return accepted;
+    }
+    
+    private static boolean isWellFormedUtf8(ByteBuffer in) {
+        int i = in.position(), limit = in.limit();
+        while (i < limit && in.get(i) >= 0) {
+            i++;
+        }
+        if (i == limit) {
+            return true;
+        }
+        CharsetDecoder decoder = UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer rest = in.duplicate();
+        rest.position(i);
+        CharBuffer out = CharBuffer.allocate(8192);
+        while (true) {
+            out.clear();
+            CoderResult result = decoder.decode(rest, out, true);
+            if (result.isError()) {
+                return false;
+            }
+            if (result.isUnderflow()) {
+                return !decoder.flush(out).isError();
+            }
+        }
+    }
+    
+    /**
+     * Scans the next token or comment.
+     * @return the token's kind, or {@link #ERROR}
+     */
+    public int next() {
+        special = false;
+        int p = pos;
+        int b = 0;
+        while (p < limit && ((b = in.get(p)) == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f')) {
+            p++;
+        }
+        if (p >= limit) {
+            // like JavaCC, places EOF at the last character read
+            pos = p;
+            kind = vocabulary.eof;
+            image = "";
+            start = end = p;
+            if (limit > in.position()) {
+                positionOf(lastCharStart(limit), true);
+                beginLine = endLine = line;
+                beginColumn = endColumn = column;
+            }
+            return kind;
+        }
+        start = p;
+        image = null;
+        if (b < 0) {
+            return error(STATE_DEFAULT, p, p, false);
+        }
+        if (isIdentifierStart(b)) {
+            return identifier(p);
+        }
+        if (b == '/' && p + 1 < limit && (in.get(p + 1) == '/' || in.get(p + 1) == '*')) {
+            return in.get(p + 1) == '/' ? singleLineComment(p, p + 2) : multiLineComment(p);
+        }
+        if (b == '"') {
+            return stringLiteral(p);
+        }
+        if (b == '\'') {
+            return charLiteral(p);
+        }
+        
+        // the longest match wins; of equal matches, the first in the grammar
+        int bestKind = -1, bestLen = 0;
+        if (b == '-' || isDigit(b)) {
+            int len = intLength(p);
+            if (len > bestLen) {
+                bestKind = vocabulary.intVal;
+                bestLen = len;
+            }
+        }
+        if (b == '-' || b == '.' || isDigit(b)) {
+            int len = floatLength(p);
+            if (len > bestLen || (len == bestLen && len > 0 && vocabulary.floatVal < bestKind)) {
+                bestKind = vocabulary.floatVal;
+                bestLen = len;
+            }
+        }
+        Literal[] candidates = vocabulary.operators[b];
+        if (candidates != null) {
+            for (Literal op : candidates) {
+                if (op.bytes.length < bestLen) {
+                    break;
+                }
+                if (p + op.bytes.length <= limit && op.matches(in, p, p + op.bytes.length)) {
+                    if (op.bytes.length > bestLen || op.kind < bestKind) {
+                        bestKind = op.kind;
+                        bestLen = op.bytes.length;
+                        image = op.image;
+                    }
+                    break;
+                }
+            }
+        }
+        if (bestLen == 0) {
+            if (b == '#') {
+                return singleLineComment(p, p + 1);
+            }
+            return error(STATE_DEFAULT, p, p, false);
+        }
+        if (bestKind == vocabulary.intVal || bestKind == vocabulary.floatVal) {
+            image = ascii(p, p + bestLen);
+        }
+        return token(bestKind, p, p + bestLen);
+    }
+    
+    public int getKind() {
+        return kind;
+    }
+    
+    /**
+     * Whether the current token is a comment, which the parser sees as a
+     * special token.
+     */
+    public boolean isSpecial() {
+        return special;
+    }
+    
+    public String getImage() {
+        return image;
+    }
+    
+    /** Returns the offset of the current token's first byte. */
+    public int getStart() {
+        return start;
+    }
+    
+    /** Returns the offset just past the current token's last byte. */
+    public int getEnd() {
+        return end;
+    }
+    
+    public int getBeginLine() {
+        return beginLine;
+    }
+    
+    public int getBeginColumn() {
+        return beginColumn;
+    }
+    
+    public int getEndLine() {
+        return endLine;
+    }
+    
+    public int getEndColumn() {
+        return endColumn;
+    }
+    
+    /** Whether the lexical error was found at the end of input. */
+    public boolean isErrorAtEof() {
+        return errorAtEof;
+    }
+    
+    /** Returns the JavaCC lexical state the error was found in. */
+    public int getErrorState() {
+        return errorState;
+    }
+    
+    public int getErrorLine() {
+        return errorLine;
+    }
+    
+    public int getErrorColumn() {
+        return errorColumn;
+    }
+    
+    /** Returns the text of the partial token preceding the error. */
+    public String getErrorAfter() {
+        return errorAfter;
+    }
+    
+    /** Returns the character at which the error was found. */
+    public char getErrorChar() {
+        return errorChar;
+    }
+    
+    private int token(int kind, int start, int end) {
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+        this.pos = end;
+        positionOf(start, false);
+        beginLine = line;
+        beginColumn = column;
+        positionOf(lastCharStart(end), true);
+        endLine = line;
+        endColumn = column;
+        return kind;
+    }
+    
+    private int identifier(int p) {
+        int h = 0;
+        int q = p;
+        int b;
+        while (q < limit && isIdentifierPart(b = in.get(q))) {
+            h = 31 * h + b;
+            q++;
+        }
+        h = mix(h);
+        Literal word = vocabulary.keyword(in, p, q, h);
+        if (word != null) {
+            image = word.image;
+            return token(word.kind, p, q);
+        }
+        image = name(p, q, h);
+        return token(vocabulary.identifier, p, q);
+    }
+    
+    // returns the interned identifier for bytes [p, q), looking in this
+    // lexer's table before the JVM's
+    private String name(int p, int q, int h) {
+        int mask = names.length - 1;
+        int i = h & mask;
+        for (String name; (name = names[i]) != null; i = (i + 1) & mask) {
+            if (nameHashes[i] == h && equalsAscii(name, p, q)) {
+                return name;
+            }
+        }
+        String name = ascii(p, q).intern();
+        names[i] = name;
+        nameHashes[i] = h;
+        if (++nameCount * 2 > names.length) {
+            String[] oldNames = names;
+            int[] oldHashes = nameHashes;
+            names = new String[oldNames.length * 2];
+            nameHashes = new int[oldNames.length * 2];
+            mask = names.length - 1;
+            for (int j = 0; j < oldNames.length; j++) {
+                if (oldNames[j] != null) {
+                    int k = oldHashes[j] & mask;
+                    while (names[k] != null) {
+                        k = (k + 1) & mask;
+                    }
+                    names[k] = oldNames[j];
+                    nameHashes[k] = oldHashes[j];
+                }
+            }
+        }
+        return name;
+    }
+    
+    private boolean equalsAscii(String name, int p, int q) {
+        if (name.length() != q - p) {
+            return false;
+        }
+        for (int i = 0; p < q; i++, p++) {
+            if (name.charAt(i) != in.get(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // INT_VAL: ("-")? ["1"-"9"] (["0"-"9"])* (["l","L"])?
+    //        | "0" ["x","X"] (hex digit)+ (["l","L"])?
+    //        | "0"
+    private int intLength(int p) {
+        int i = p;
+        if (byteAt(i) == '-') {
+            i++;
+        }
+        int b = byteAt(i);
+        if (b >= '1' && b <= '9') {
+            i = digits(i + 1);
+            b = byteAt(i);
+            return (b == 'l' || b == 'L' ? i + 1 : i) - p;
+        }
+        if (b == '0' && i == p) {
+            b = byteAt(i + 1);
+            if ((b == 'x' || b == 'X') && isHexDigit(byteAt(i + 2))) {
+                i += 3;
+                while (isHexDigit(byteAt(i))) {
+                    i++;
+                }
+                b = byteAt(i);
+                return (b == 'l' || b == 'L' ? i + 1 : i) - p;
+            }
+            return 1;
+        }
+        return 0;
+    }
+    
+    // FLOAT_VAL: ("-")? (digit)+ "." (digit)* (exponent)? (suffix)?
+    //          | "." (digit)+ (exponent)? (suffix)?
+    //          | (digit)+ exponent (suffix)?
+    //          | (digit)+ (exponent)? suffix
+    private int floatLength(int p) {
+        int best = 0;
+        int i = byteAt(p) == '-' ? p + 1 : p;
+        int j = digits(i);
+        if (j > i && byteAt(j) == '.') {
+            best = suffix(exponent(digits(j + 1))) - p;
+        }
+        if (byteAt(p) == '.') {
+            j = digits(p + 1);
+            if (j > p + 1) {
+                best = Math.max(best, suffix(exponent(j)) - p);
+            }
+        }
+        j = digits(p);
+        if (j > p) {
+            int k = exponent(j);
+            int s = suffix(k);
+            if (s > k || k > j) {
+                best = Math.max(best, s - p);
+            }
+        }
+        return best;
+    }
+    
+    private int digits(int i) {
+        while (isDigit(byteAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    
+    // returns the end of the exponent at i, or i if there is none
+    private int exponent(int i) {
+        int b = byteAt(i);
+        if (b != 'e' && b != 'E') {
+            return i;
+        }
+        int k = i + 1;
+        b = byteAt(k);
+        if (b == '+' || b == '-') {
+            k++;
+        }
+        int end = digits(k);
+        return end > k ? end : i;
+    }
+    
+    private int suffix(int i) {
+        int b = byteAt(i);
+        return b == 'f' || b == 'F' || b == 'd' || b == 'D' ? i + 1 : i;
+    }
+    
+    // STRING_VAL: "\"" ( ~["\"","\\","\n","\r"] | "\\" ["n","t","b","r","f","\\","'","\""] )* "\""
+    private int stringLiteral(int p) {
+        int q = p + 1;
+        boolean ascii = true;
+        while (true) {
+            if (q >= limit) {
+                return error(STATE_DEFAULT, p, lastCharStart(limit), true);
+            }
+            int b = in.get(q);
+            if (b == '"') {
+                image = ascii ? ascii(p, q + 1) : decode(p, q + 1);
+                return token(vocabulary.stringVal, p, q + 1);
+            } else if (b == '\\') {
+                if (q + 1 >= limit) {
+                    return error(STATE_DEFAULT, p, q, false);
+                }
+                if (!isEscape(in.get(q + 1))) {
+                    return error(STATE_DEFAULT, p, q + 1, false);
+                }
+                q += 2;
+            } else if (b == '\n' || b == '\r') {
+                return error(STATE_DEFAULT, p, q, false);
+            } else if (b >= 0) {
+                q++;
+            } else {
+                int rejected = rejectedHalf(q);
+                if (rejected >= 0) {
+                    return error(STATE_DEFAULT, p, q, rejected == 1);
+                }
+                ascii = false;
+                q = charEnd(q);
+            }
+        }
+    }
+    
+    // CHAR_VAL: "'" ( ~["'","\\","\n","\r"] | "\\" ( ["n","t","b","r","f","\\","'","\""]
+    //           | ["0"-"7"] (["0"-"7"])? | ["0"-"3"] ["0"-"7"] ["0"-"7"] ) ) "'"
+    private int charLiteral(int p) {
+        int q = p + 1;
+        if (q >= limit) {
+            return error(STATE_DEFAULT, p, p, false);
+        }
+        int b = in.get(q);
+        int r;
+        if (b == '\'' || b == '\n' || b == '\r') {
+            return error(STATE_DEFAULT, p, q, false);
+        } else if (b == '\\') {
+            if (q + 1 >= limit) {
+                return error(STATE_DEFAULT, p, q, false);
+            }
+            int e = in.get(q + 1);
+            r = q + 2;
+            if (isOctalDigit(e)) {
+                if (isOctalDigit(byteAt(r))) {
+                    r++;
+                    if (e <= '3' && isOctalDigit(byteAt(r))) {
+                        r++;
+                    }
+                }
+            } else if (!isEscape(e)) {
+                return error(STATE_DEFAULT, p, q + 1, false);
+            }
+        } else {
+            if (b < 0) {
+                int rejected = rejectedHalf(q);
+                if (rejected >= 0) {
+                    return error(STATE_DEFAULT, p, q, rejected == 1);
+                }
+                if (charLength(q) == 2) {
+                    // a supplementary character is two chars to a Reader
+                    return error(STATE_DEFAULT, p, q, true);
+                }
+            }
+            r = charEnd(q);
+        }
+        if (r >= limit) {
+            return error(STATE_DEFAULT, p, lastCharStart(limit), true);
+        }
+        if (in.get(r) != '\'') {
+            return error(STATE_DEFAULT, p, r, false);
+        }
+        image = b >= 0 ? ascii(p, r + 1) : decode(p, r + 1);
+        return token(vocabulary.charVal, p, r + 1);
+    }
+    
+    private int singleLineComment(int p, int q) {
+        int b = 0;
+        while (q < limit && (b = in.get(q)) != '\n' && b != '\r') {
+            q++;
+        }
+        if (q >= limit) {
+            return commentError(STATE_SINGLE_LINE_COMMENT, lastCharStart(limit), true);
+        }
+        int end = b == '\r' && q + 1 < limit && in.get(q + 1) == '\n' ? q + 2 : q + 1;
+        image = in.get(p) == '#' ? "#" : "//";
+        return special(vocabulary.singleLineComment, p, end);
+    }
+    
+    private int multiLineComment(int p) {
+        for (int q = p + 2; q + 1 < limit; q++) {
+            if (in.get(q) == '*' && in.get(q + 1) == '/') {
+                // only doc comments are of interest to the parser
+                image = in.get(p + 2) == '*' ? decode(p, q + 2) : "/*";
+                return special(vocabulary.multiLineComment, p, q + 2);
+            }
+        }
+        return commentError(STATE_MULTI_LINE_COMMENT, lastCharStart(limit), true);
+    }
+    
+    private int special(int kind, int start, int end) {
+        token(kind, start, end);
+        special = true;
+        return kind;
+    }
+    
+    /*
+     * Records a lexical error as JavaCC reports it: at the character at k
+     * (its low surrogate, if lowHalf and it has one), the last one read, or
+     * just past it if the input ends there, after the partial token read
+     * from p (if more than one char long).
+     */
+    private int error(int state, int p, int k, boolean lowHalf) {
+        boolean pair = charLength(k) == 2;
+        lowHalf &= pair;
+        boolean eof = (lowHalf || !pair) && charEnd(k) >= limit;
+        kind = ERROR;
+        errorState = state;
+        errorAtEof = eof;
+        positionOf(k, lowHalf);
+        errorLine = line;
+        errorColumn = column;
+        String killer = decode(k, charEnd(k));
+        errorChar = killer.charAt(lowHalf ? 1 : 0);
+        if (eof) {
+            if (errorChar == '\n' || errorChar == '\r') {
+                errorLine++;
+                errorColumn = 0;
+            } else {
+                errorColumn++;
+            }
+        }
+        if (p > k || (p == k && !lowHalf)) {
+            errorAfter = "";
+        } else if (eof) {
+            errorAfter = decode(p, charEnd(k));
+        } else {
+            errorAfter = decode(p, k) + (lowHalf ? killer.substring(0, 1) : "");
+        }
+        pos = limit;
+        return ERROR;
+    }
+    
+    // comments are scanned a character at a time, so no partial token
+    // precedes an error
+    private int commentError(int state, int k, boolean lowHalf) {
+        error(state, k, k, lowHalf);
+        errorAfter = "";
+        return ERROR;
+    }
+    
+    /*
+     * Returns which of the (one or two) chars of the non-ASCII character
+     * at i JavaCC rejects in literals, or -1 if neither.
+     */
+    private int rejectedHalf(int i) {
+        int b = in.get(i);
+        if (!utf8) {
+            return accepted[b & 0x7f] ? -1 : 0;
+        }
+        if ((b & 0xe0) == 0xc0) {
+            return ((in.get(i + 1) & 0x3f) | (b & 0x03) << 6) >= 0x80 ? -1 : 0;
+        }
+        if ((b & 0xf0) == 0xe0) {
+            return ((in.get(i + 2) & 0x3f) | (in.get(i + 1) & 0x03) << 6) >= 0x80 ? -1 : 0;
+        }
+        // a supplementary character, as a surrogate pair
+        int cp = ((b & 0x07) << 18 | (in.get(i + 1) & 0x3f) << 12 | (in.get(i + 2) & 0x3f) << 6
+                | (in.get(i + 3) & 0x3f)) - 0x10000;
+        if (((cp >> 10) & 0xff) < 0x80) {
+            return 0;
+        }
+        return (cp & 0xff) < 0x80 ? 1 : -1;
+    }
+    
+    // moves the line and column cursor to the character at offset (to its
+    // low surrogate, if lowHalf and it has one), which must not precede the
+    // last offset moved to
+    private void positionOf(int offset, boolean lowHalf) {
+        while (cursor <= offset) {
+            if (pendingLowSurrogate) {
+                pendingLowSurrogate = false;
+                update(0xffff);
+            }
+            int b = in.get(cursor++);
+            if (b > '\r' && !prevCharIsLF && !prevCharIsCR) {
+                // the common case: neither a line break nor a tab
+                column++;
+            } else if (b >= 0) {
+                update(b);
+            } else if (utf8) {
+                if ((b & 0xc0) == 0x80) {
+                    // continuation byte
+                    continue;
+                }
+                update(0xffff);
+                pendingLowSurrogate = (b & 0xf8) == 0xf0;
+            } else {
+                update(0xffff);
+            }
+        }
+        if (lowHalf && pendingLowSurrogate) {
+            pendingLowSurrogate = false;
+            update(0xffff);
+        }
+    }
+    
+    // as SimpleCharStream.UpdateLineColumn
+    private void update(int c) {
+        column++;
+        if (prevCharIsLF) {
+            prevCharIsLF = false;
+            line += (column = 1);
+        } else if (prevCharIsCR) {
+            prevCharIsCR = false;
+            if (c == '\n') {
+                prevCharIsLF = true;
+            } else {
+                line += (column = 1);
+            }
+        }
+        switch (c) {
+        case '\r':
+            prevCharIsCR = true;
+            break;
+        case '\n':
+            prevCharIsLF = true;
+            break;
+        case '\t':
+            column--;
+            column += (TAB_SIZE - (column % TAB_SIZE));
+            break;
+        default:
+            break;
+        }
+    }
+    
+    private int byteAt(int i) {
+        return i < limit ? in.get(i) : -1;
+    }
+    
+    // the number of chars a Reader would make of the character at i
+    private int charLength(int i) {
+        return utf8 && (in.get(i) & 0xf8) == 0xf0 ? 2 : 1;
+    }
+    
+    private int charEnd(int i) {
+        if (!utf8 || in.get(i) >= 0) {
+            return i + 1;
+        }
+        int end = i + 1;
+        while (end < limit && (in.get(end) & 0xc0) == 0x80) {
+            end++;
+        }
+        return end;
+    }
+    
+    private int lastCharStart(int end) {
+        int i = end - 1;
+        if (utf8) {
+            while (i > in.position() && (in.get(i) & 0xc0) == 0x80) {
+                i--;
+            }
+        }
+        return i;
+    }
+    
+    private String ascii(int p, int q) {
+        if (in.hasArray()) {
+            return new String(in.array(), in.arrayOffset() + p, q - p, LATIN1);
+        }
+        return new String(copy(p, q), LATIN1);
+    }
+    
+    private String decode(int p, int q) {
+        if (in.hasArray()) {
+            return new String(in.array(), in.arrayOffset() + p, q - p, charset);
+        }
+        return new String(copy(p, q), charset);
+    }
+    
+    private byte[] copy(int p, int q) {
+        byte[] bytes = new byte[q - p];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = in.get(p + i);
+        }
+        return bytes;
+    }
+    
+    // spreads similar names' hashes over the low bits used as table indexes
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+    
+    private static boolean isIdentifierStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+    
+    private static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+    
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isOctalDigit(int c) {
+        return c >= '0' && c <= '7';
+    }
+    
+    private static boolean isHexDigit(int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+    
+    private static boolean isEscape(int c) {
+        return c == 'n' || c == 't' || c == 'b' || c == 'r' || c == 'f' || c == '\\' || c == '\'' || c == '"';
+    }
+
+}
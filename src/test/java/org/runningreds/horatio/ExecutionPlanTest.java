@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.runningreds.horatio.parser.Parsers;
+
+public class ExecutionPlanTest {
+    
+    @Test
+    public void dependenciesComeFirstOtherwiseGenspecOrder() throws Exception {
+        ExecutionPlan plan = compile(
+                "java:  { depends_on: [ \"types\" ], generators: [ { }, { depends_on: [ 0 ] } ] },\n" +
+                "types: { generators: [ { }, { } ] },\n" +
+                "docs:  { generators: [ { depends_on: [ \"java[1]\" ] } ] },\n" +
+                "misc:  { generators: [ { } ] },\n");
+        assertTrue(plan.getErrors().toString(), plan.isValid());
+        assertEquals("[types[0], types[1], java[0], java[1], docs[0], misc[0]]", ids(plan));
+    }
+    
+    @Test
+    public void independentUnitsKeepGenspecOrder() throws Exception {
+        ExecutionPlan plan = compile(
+                "b: { generators: [ { }, { } ] },\n" +
+                "a: { generators: [ { } ] },\n");
+        assertEquals("[b[0], b[1], a[0]]", ids(plan));
+    }
+    
+    @Test
+    public void cycleIsReportedAsPlanError() throws Exception {
+        ExecutionPlan plan = compile(
+                "a: { depends_on: [ \"b\" ], generators: [ { } ] },\n" +
+                "b: { generators: [ { depends_on: [ \"a[0]\" ] } ] },\n" +
+                "c: { generators: [ { } ] },\n");
+        assertFalse(plan.isValid());
+        assertEquals(1, plan.getErrors().size());
+        assertEquals("Dependency cycle among target[generator] = a[0] b[0]", plan.getErrors().get(0));
+        try {
+            plan.validate();
+            fail("validate accepted a cycle");
+        } catch (GenspecException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void unknownTargetIsReportedAsPlanError() throws Exception {
+        ExecutionPlan plan = compile("a: { depends_on: [ \"nope\" ], generators: [ { } ] },\n");
+        assertFalse(plan.isValid());
+        assertEquals("[Unknown target nope in depends_on of target a]", plan.getErrors().toString());
+    }
+    
+    static ExecutionPlan compile(String targets) throws Exception {
+        return compile(targets, new HashMap<String, Object>());
+    }
+    
+    /**
+     * Compiles a genspec of the given targets, all run by a
+     * {@link RecordingGenerator}.
+     */
+    @SuppressWarnings("unchecked")
+    static ExecutionPlan compile(String targets, Map<String, Object> mainOptions) throws Exception {
+        Map<String, Object> genspec = Parsers.parseGenspec("test.gen", new StringReader("{ targets: {\n" + targets + "} }"));
+        for (Object target : ((Map<String, Object>)genspec.get("targets")).values()) {
+            for (Object gen : (List<Object>)((Map<String, Object>)target).get("generators")) {
+                ((Map<String, Object>)gen).put("generator_class", RecordingGenerator.class.getName());
+            }
+        }
+        return ExecutionPlan.compile(genspec, mainOptions);
+    }
+    
+    private static String ids(ExecutionPlan plan) {
+        List<String> ids = new ArrayList<String>();
+        for (GeneratorUnit unit : plan.getUnits()) {
+            ids.add(unit.getId());
+        }
+        return ids.toString();
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GenerationSchedulerTest {
+    
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private PrintStream prevLog;
+    
+    @Before
+    public void setUp() {
+        RecordingGenerator.reset();
+        prevLog = GenspecUtil.setLogStream(new PrintStream(log, true));
+    }
+    
+    @After
+    public void tearDown() {
+        GenspecUtil.setLogStream(prevLog);
+    }
+    
+    @Test
+    public void collectAllSkipsDependentsSequential() throws Exception {
+        checkCollectAllSkipsDependents(1);
+    }
+    
+    @Test
+    public void collectAllSkipsDependentsParallel() throws Exception {
+        checkCollectAllSkipsDependents(4);
+    }
+    
+    private void checkCollectAllSkipsDependents(int parallelism) throws Exception {
+        ExecutionPlan plan = ExecutionPlanTest.compile(
+                "a: { generators: [ { fail: true } ] },\n" +
+                "b: { depends_on: [ \"a\" ], generators: [ { } ] },\n" +
+                "c: { generators: [ { depends_on: [ \"b[0]\" ] } ] },\n" +
+                "d: { generators: [ { } ] },\n");
+        plan.validate();
+        GenerationScheduler scheduler = new GenerationScheduler(parallelism, GenerationScheduler.FailurePolicy.COLLECT_ALL);
+        try {
+            scheduler.run(new RunContext(), plan.getUnits());
+            fail("run succeeded with a failing generator");
+        } catch (GenerationException e) {
+            assertEquals("1 of 4 generators failed, 2 skipped", e.getMessage());
+        }
+        List<String> runs = RecordingGenerator.getRuns();
+        assertEquals(2, runs.size());
+        assertTrue(runs.containsAll(Arrays.asList("a[0]", "d[0]")));
+        String output = log.toString("UTF-8");
+        assertTrue(output, output.contains("Generator failed for target[generator] = a[0]"));
+        assertTrue(output, output.contains("Generator skipped for target[generator] = b[0], as a[0] did not complete"));
+        assertTrue(output, output.contains("Generator skipped for target[generator] = c[0], as b[0] did not complete"));
+    }
+    
+    @Test
+    public void failFastStopsAtFirstFailure() throws Exception {
+        ExecutionPlan plan = ExecutionPlanTest.compile(
+                "a: { generators: [ { fail: true } ] },\n" +
+                "b: { depends_on: [ \"a\" ], generators: [ { } ] },\n");
+        GenerationScheduler scheduler = new GenerationScheduler(1, GenerationScheduler.FailurePolicy.FAIL_FAST);
+        try {
+            scheduler.run(new RunContext(), plan.getUnits());
+            fail("run succeeded with a failing generator");
+        } catch (GenerationException e) {
+            assertEquals("Failed a[0]", e.getMessage());
+        }
+        assertEquals(Arrays.asList("a[0]"), RecordingGenerator.getRuns());
+    }
+    
+    @Test(timeout = 10000)
+    public void parallelRunRejectsCycle() throws Exception {
+        Map<String, Object> spec = new HashMap<String, Object>();
+        GeneratorUnit free = new GeneratorUnit("free", 0, spec, new RecordingGenerator());
+        GeneratorUnit a = new GeneratorUnit("a", 0, spec, new RecordingGenerator());
+        GeneratorUnit b = new GeneratorUnit("b", 0, spec, new RecordingGenerator());
+        a.addDependency(b);
+        b.addDependency(a);
+        List<GeneratorUnit> units = new ArrayList<GeneratorUnit>(Arrays.asList(free, a, b));
+        GenerationScheduler scheduler = new GenerationScheduler(4, GenerationScheduler.FailurePolicy.COLLECT_ALL);
+        try {
+            scheduler.run(new RunContext(), units);
+            fail("run succeeded with a dependency cycle");
+        } catch (GenerationException e) {
+            assertEquals("Dependency cycle among target[generator] = a[0] b[0]", e.getMessage());
+        }
+        assertEquals(Arrays.asList("free[0]"), RecordingGenerator.getRuns());
+    }
+
+}
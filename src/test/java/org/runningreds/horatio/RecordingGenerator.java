@@ -0,0 +1,57 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.runningreds.horatio.generator.Generator;
+
+/**
+ * A generator for tests that records the ids of the units it runs, and
+ * fails those whose genspec entry has <code>fail: true</code>.
+ */
+public class RecordingGenerator implements Generator {
+    
+    private static final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+    
+    public static List<String> getRuns() {
+        synchronized(runs) {
+            return new ArrayList<String>(runs);
+        }
+    }
+    
+    public static void reset() {
+        runs.clear();
+    }
+    
+    public String getName() {
+        return "Recording Generator";
+    }
+    
+    public void generate(RunContext context, Map<String, Object> genspec, String target, int genIndex) {
+        runs.add(GenspecUtil.getTargetGenId(target, genIndex));
+        if (GenspecUtil.getBoolean("fail", genspec, false)) {
+            throw new GenerationException("Failed " + GenspecUtil.getTargetGenId(target, genIndex));
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.runningreds.horatio.Horatio.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.runningreds.horatio.Horatio;
+
+public class IncrementalGenerationTest {
+    
+    // counts the files rendered in a context, so it shows whether one
+    // file's #set is seen by the next
+    private static final String TEMPLATE =
+            "#if(!$n)#set($n=0)#end#set($n=$n+1)$struct.name $n #foreach($f in $struct.fields)$f.name #end\n";
+    
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    
+    @Before
+    public void setUp() throws Exception {
+        write("tpl/count.vm", TEMPLATE);
+    }
+    
+    @Test
+    public void incrementalRerunMatchesFullBuild() throws Exception {
+        for (int renderParallelism : new int[] { 1, 4 }) {
+            Map<String, Object> options = options("inc" + renderParallelism, renderParallelism, false);
+            options.put(OPT_INCREMENTAL, Boolean.TRUE);
+            options.put(OPT_STATE_FILE, new File(dir.getRoot(), "state" + renderParallelism).getPath());
+            writeModel(false);
+            run(options);
+            // only B changes, so only B is regenerated
+            writeModel(true);
+            run(options);
+            run(options("full" + renderParallelism, renderParallelism, false));
+            assertEquals(read("full" + renderParallelism), read("inc" + renderParallelism));
+        }
+    }
+    
+    @Test
+    public void cachedRerunMatchesFullBuild() throws Exception {
+        for (int renderParallelism : new int[] { 1, 4 }) {
+            writeModel(false);
+            run(options("first" + renderParallelism, renderParallelism, true));
+            // only B changes, so A and C come from the cache
+            writeModel(true);
+            run(options("cached" + renderParallelism, renderParallelism, true));
+            run(options("full" + renderParallelism, renderParallelism, false));
+            assertEquals(read("full" + renderParallelism), read("cached" + renderParallelism));
+        }
+    }
+    
+    private void writeModel(boolean changed) throws IOException {
+        write("idl/m.thrift", "struct A { 1: i32 a }\n" +
+                (changed ? "struct B { 1: i32 b, 2: i32 b2 }\n" : "struct B { 1: i32 b }\n") +
+                "struct C { 1: i32 c }\n");
+    }
+    
+    private Map<String, Object> options(String outputDir, int renderParallelism, boolean cached) throws IOException {
+        File root = dir.getRoot();
+        String genspec = "{\n" +
+                "  global: { options: { model_file: \"" + path(root, "idl/m.thrift") + "\", " +
+                "base_input_dir: \"" + path(root, "tpl") + "\", base_output_dir: \"" + path(root, outputDir) + "\", " +
+                "render_parallelism: " + renderParallelism + ", output_cache: " + cached + " } },\n" +
+                "  targets: { t: { generators: [ { template: \"count.vm\", iterate: struct, filename_extension: txt } ] } },\n" +
+                "}\n";
+        File genspecFile = write(outputDir + ".gen", genspec);
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(OPT_GENSPEC_FILE, genspecFile.getPath());
+        if (cached) {
+            options.put(OPT_OUTPUT_CACHE_DIR, path(root, "cache"));
+        }
+        return options;
+    }
+    
+    private static void run(Map<String, Object> options) throws Exception {
+        new Horatio(new HashMap<String, Object>(options)).run();
+    }
+    
+    private Map<String, String> read(String outputDir) throws IOException {
+        Map<String, String> files = new TreeMap<String, String>();
+        File[] list = new File(dir.getRoot(), outputDir).listFiles();
+        for (File file : list) {
+            files.put(file.getName(), new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        }
+        assertEquals(3, files.size());
+        return files;
+    }
+    
+    private static String path(File root, String name) {
+        return new File(root, name).getAbsolutePath().replace('\\', '/');
+    }
+    
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir.getRoot(), name);
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
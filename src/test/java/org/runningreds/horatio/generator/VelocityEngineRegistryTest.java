@@ -0,0 +1,71 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.generator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.runningreds.horatio.FileRef;
+
+public class VelocityEngineRegistryTest {
+    
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    
+    @Test
+    public void inlineMacrosAreLocalToTheirTemplate() throws Exception {
+        File struct = write("struct.vm", "#macro(fld $n)F:$n#end\ndraw #fld(\"s\") #fld(\"n\")");
+        File svc = write("svc.vm", "#macro(fld $n)G:$n#end\ndraw #fld(\"s\") #fld(\"n\")");
+        VelocityEngineRegistry registry = new VelocityEngineRegistry();
+        // render each twice, alternating, so neither can see the other's macro
+        for (int i = 0; i < 2; i++) {
+            assertEquals("draw F:s F:n", render(registry, struct));
+            assertEquals("draw G:s G:n", render(registry, svc));
+        }
+    }
+    
+    private static String render(VelocityEngineRegistry registry, File file) throws Exception {
+        Template template = registry.getTemplate(new FileRef(file), "UTF-8");
+        StringWriter writer = new StringWriter();
+        template.merge(new VelocityContext(), writer);
+        return writer.toString();
+    }
+    
+    private File write(String name, String content) throws IOException {
+        File file = dir.newFile(name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.runningreds.horatio.FileRef;
+import org.runningreds.horatio.model.ThriftModel;
+
+public class ModelCacheTest {
+    
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    
+    @Test
+    public void editedIncludeIsReparsed() throws Exception {
+        File a = write("a.thrift", "include \"b.thrift\"\nstruct A { 1: b.B b }\n");
+        File b = write("b.thrift", "struct B { 1: i32 x }\n");
+        ModelCache cache = new ModelCache();
+        ThriftModel first = cache.getModel(new FileRef(a));
+        assertSame(first, cache.getModel(new FileRef(a)));
+        assertEquals(1, fieldCount(first));
+        
+        write("b.thrift", "struct B { 1: i32 x, 2: i32 y }\n");
+        ThriftModel second = cache.getModel(new FileRef(a));
+        assertNotSame(first, second);
+        assertEquals(2, fieldCount(second));
+        assertSame(second, cache.getModel(new FileRef(a)));
+    }
+    
+    @Test
+    public void filesIncludeIncludedFiles() throws Exception {
+        File a = write("a.thrift", "include \"b.thrift\"\nstruct A { 1: b.B b }\n");
+        File b = write("b.thrift", "struct B { 1: i32 x }\n");
+        ModelCache cache = new ModelCache();
+        cache.getModel(new FileRef(a));
+        assertEquals(new HashSet<File>(Arrays.asList(a.getAbsoluteFile(), b.getAbsoluteFile())), cache.getFiles());
+    }
+    
+    @Test
+    public void failureIsRetriedAfterEviction() throws Exception {
+        File a = write("a.thrift", "include \"b.thrift\"\nstruct A { 1: b.B b }\n");
+        ModelCache cache = new ModelCache();
+        try {
+            cache.getModel(new FileRef(a));
+        } catch (Exception e) {
+            // b.thrift is missing
+        }
+        write("b.thrift", "struct B { 1: i32 x }\n");
+        cache.evictFailures();
+        assertEquals(1, fieldCount(cache.getModel(new FileRef(a))));
+    }
+    
+    private static int fieldCount(ThriftModel model) {
+        return model.getModelSet().getModel("b").getStructs().get("B").getFields().size();
+    }
+    
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir.getRoot(), name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ *  Copyright 2011, 2012 Bill Dortch / RunningReds.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+
+package org.runningreds.horatio.parser.thrift;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.runningreds.horatio.parser.ByteBufferReader;
+import org.runningreds.horatio.parser.CorpusGenerator;
+import org.runningreds.horatio.parser.ThriftLexer;
+
+/**
+ * Checks that the hand-written lexer yields exactly the tokens, positions,
+ * comments and errors of the one JavaCC generates, except that comments
+ * other than doc comments have only their opening delimiter as image.
+ */
+public class ThriftLexerParityTest {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ThriftLexer.Vocabulary VOCABULARY = new ThriftLexer.Vocabulary(ThriftParserConstants.tokenImage);
+    
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+    
+    @Test
+    public void corpus() throws Exception {
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setStructs(200);
+        generator.setUnions(20);
+        generator.setEnums(40);
+        generator.setServices(10);
+        generator.setIncludeFanout(4);
+        generator.setContainerDepth(3);
+        generator.setDocDensity(0.5);
+        generator.generate(dir.getRoot());
+        File[] files = new File(dir.getRoot(), "idl").listFiles();
+        // the root, common and four fanned-out includes
+        assertEquals(6, files.length);
+        for (File file : files) {
+            assertSameTokens(file.getName(), Files.readAllBytes(file.toPath()));
+        }
+    }
+    
+    @Test
+    public void edgeCases() throws Exception {
+        String[] inputs = {
+            "",
+            "struct A {\r\n\t1: i32 a = 0x1F,\r\n\t2: double d = -1.5e10,\r\n\t3: double e = 2E-3\r\n}\r\n",
+            "const i64 X = +42 // trailing\n# hash comment\n/* block\n * comment */ const string S = 'single' ",
+            "/** doc\n */\nenum E { A = 1, B, C = 0x10 }",
+            "typedef list<map<string, set<i32>>> Deep",
+            "struct \u00c4 { 1: string s = \"\u00fc\u20ac\" }",
+            "/* unterminated comment",
+            "const string S = \"unterminated",
+            "struct A { 1: i32 a @ }",
+            "\tstruct\r\rA\n\r{}",
+        };
+        for (int i = 0; i < inputs.length; i++) {
+            assertSameTokens("input " + i, inputs[i].getBytes(UTF8));
+        }
+    }
+    
+    private static void assertSameTokens(String name, byte[] content) {
+        ThriftParserTokenManager expected = new ThriftParserTokenManager(
+                new SimpleCharStream(new ByteBufferReader(ByteBuffer.wrap(content), UTF8)));
+        ThriftParserTokenManager actual = new ThriftParser.LexerTokenManager(
+                ThriftLexer.create(ByteBuffer.wrap(content), UTF8, VOCABULARY));
+        for (int i = 0; ; i++) {
+            String e = next(expected);
+            String a = next(actual);
+            assertEquals(name + ", token " + i, e, a);
+            if (e.startsWith("EOF") || e.startsWith("error")) {
+                return;
+            }
+        }
+    }
+    
+    // the token and its special tokens (comments), or the error
+    private static String next(ThriftParserTokenManager tokens) {
+        Token t;
+        try {
+            t = tokens.getNextToken();
+        } catch (TokenMgrError e) {
+            return "error " + e.getMessage();
+        }
+        StringBuilder sb = new StringBuilder(t.kind == ThriftParserConstants.EOF ? "EOF" : describe(t));
+        for (Token s = t.specialToken; s != null; s = s.specialToken) {
+            sb.append(" after ").append(describeComment(s));
+        }
+        return sb.toString();
+    }
+    
+    private static String describe(Token t) {
+        return describe(t, t.image);
+    }
+    
+    private static String describeComment(Token t) {
+        if (t.image.startsWith("/**")) {
+            return describe(t, t.image);
+        }
+        return describe(t, t.image.startsWith("/*") ? "/*" : t.image.startsWith("#") ? "#" : "//");
+    }
+    
+    private static String describe(Token t, String image) {
+        return t.kind + " '" + image + "' " + t.beginLine + ':' + t.beginColumn + '-' + t.endLine + ':' + t.endColumn;
+    }
+
+}